@@ -0,0 +1,130 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drives {@link Emulator} &rarr; {@link TerminalWriter} &rarr; {@link BackBuffer} end to end over recorded workloads.
+ * <p>
+ * <code>replay</code> reports throughput, the <code>megabytes</code> counter gives MB/s and running with
+ * <code>-prof gc</code> adds allocations per operation (<code>gc.alloc.rate.norm</code>). <code>chunk</code> samples
+ * the latency of processing a single read from the tty, its <code>p0.99</code> line is the per-chunk p99.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class EmulatorBenchmark {
+
+    /** The workload. */
+    @Param({ "ASCII_FLOOD", "SGR_LS", "FULL_SCREEN", "SCROLL_REGION", "UTF8_TEXT" })
+    private Workload workload;
+
+    /** The number of bytes a single tty read returns at most, the channel's buffer adapts up to 64 KiB. */
+    @Param({ "1024", "65536" })
+    private int chunkSize;
+
+    /** The tty. */
+    private MemoryTty tty;
+
+    /** The channel. */
+    private TtyChannel channel;
+
+    /** The emulator. */
+    private Emulator emulator;
+
+    /**
+     * Byte throughput reported next to the operation rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.THROUGHPUT)
+    public static class Counters {
+
+        // CHECKSTYLE:OFF
+        /** Megabytes processed, reported per second. */
+        public double megabytes;
+        // CHECKSTYLE:ON
+
+        /**
+         * Reset.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.megabytes = 0;
+        }
+    }
+
+    /**
+     * Set up the emulator for the workload.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.tty = new MemoryTty(this.workload.bytes(), this.chunkSize);
+        final NullTerminalDisplay display = new NullTerminalDisplay(Workload.COLUMNS, Workload.ROWS);
+        final StyleState styleState = new StyleState();
+        final BackBuffer backBuffer = new BackBuffer(Workload.COLUMNS, Workload.ROWS, styleState);
+        display.setBackBuffer(backBuffer);
+        final TerminalWriter tw = new TerminalWriter(display, backBuffer, styleState);
+        this.channel = new TtyChannel(this.tty);
+        this.emulator = new Emulator(tw, this.channel, null);
+    }
+
+    /**
+     * Replay the whole workload.
+     *
+     * @param counters
+     *            the counters
+     * @return the emulator, to keep the work alive
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Emulator replay(final Counters counters) throws IOException {
+        this.tty.rewind();
+        do {
+            this.emulator.singleIteration();
+        } while (!this.tty.isDrained() || this.channel.length > 0);
+        counters.megabytes += this.tty.size() / 1e6;
+        return this.emulator;
+    }
+
+    /**
+     * Process a single chunk read from the tty.
+     *
+     * @return the emulator, to keep the work alive
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Emulator chunk() throws IOException {
+        if (this.tty.isDrained() && this.channel.length == 0) {
+            this.tty.rewind();
+        }
+        do {
+            this.emulator.singleIteration();
+        } while (this.channel.length > 0);
+        return this.emulator;
+    }
+
+}
@@ -0,0 +1,133 @@
+package net.agilhard.terminal.emulation;
+
+import java.awt.Dimension;
+import java.io.IOException;
+
+import net.agilhard.jsch.UserInfo;
+
+/**
+ * In-memory {@link Tty} stand-in which replays a recorded workload in fixed size chunks.
+ */
+public class MemoryTty implements Tty {
+
+    /** The workload. */
+    private final byte[] data;
+
+    /** The maximum number of bytes returned by a single read. */
+    private final int chunkSize;
+
+    /** The read position. */
+    private int position;
+
+    /**
+     * Instantiates a new memory tty.
+     *
+     * @param data
+     *            the recorded workload
+     * @param chunkSize
+     *            the maximum number of bytes returned by a single read
+     */
+    public MemoryTty(final byte[] data, final int chunkSize) {
+        this.data = data;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Rewind to the start of the workload.
+     */
+    public void rewind() {
+        this.position = 0;
+    }
+
+    /**
+     * Checks if the whole workload has been read.
+     *
+     * @return true, if drained
+     */
+    public boolean isDrained() {
+        return this.position >= this.data.length;
+    }
+
+    /**
+     * Gets the workload size.
+     *
+     * @return the size in bytes
+     */
+    public int size() {
+        return this.data.length;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#init(net.agilhard.jsch.UserInfo, net.agilhard.terminal.emulation.Questioner)
+     */
+    @SuppressWarnings("unused")
+    @Override
+    public boolean init(final UserInfo userInfo, final Questioner questioner) {
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#close()
+     */
+    @Override
+    public void close() {
+        this.position = this.data.length;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#resize(java.awt.Dimension, java.awt.Dimension)
+     */
+    @SuppressWarnings("unused")
+    @Override
+    public void resize(final Dimension termSize, final Dimension pixelSize) {
+        // .
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#getName()
+     */
+    @Override
+    public String getName() {
+        return "MemoryTty";
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#read(byte[], int, int)
+     */
+    @Override
+    public int read(final byte[] buf, final int offset, final int length) throws IOException {
+        if (this.position >= this.data.length) {
+            return -1;
+        }
+        final int n = Math.min(Math.min(length, this.chunkSize), this.data.length - this.position);
+        System.arraycopy(this.data, this.position, buf, offset, n);
+        this.position += n;
+        return n;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#available()
+     */
+    @Override
+    public int available() {
+        return this.data.length - this.position;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#write(byte[])
+     */
+    @SuppressWarnings("unused")
+    @Override
+    public void write(final byte[] bytes) throws IOException {
+        // responses to the remote side are dropped
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#getExitStatus()
+     */
+    @Override
+    public int getExitStatus() {
+        return 0;
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.agilhard.terminal.emulation;
+
+import java.awt.Dimension;
+
+/**
+ * {@link TerminalDisplay} which renders nothing, so benchmarks measure the emulator and not the repaint.
+ */
+public class NullTerminalDisplay implements TerminalDisplay {
+
+    /** The column count. */
+    private int columns;
+
+    /** The row count. */
+    private int rows;
+
+    /** The back buffer, resized together with the display. */
+    private BackBuffer backBuffer;
+
+    /**
+     * Instantiates a new null terminal display.
+     *
+     * @param columns
+     *            the column count
+     * @param rows
+     *            the row count
+     */
+    public NullTerminalDisplay(final int columns, final int rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * Sets the back buffer.
+     *
+     * @param backBuffer
+     *            the new back buffer
+     */
+    public void setBackBuffer(final BackBuffer backBuffer) {
+        this.backBuffer = backBuffer;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.TerminalDisplay#getRowCount()
+     */
+    @Override
+    public int getRowCount() {
+        return this.rows;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.TerminalDisplay#getColumnCount()
+     */
+    @Override
+    public int getColumnCount() {
+        return this.columns;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.TerminalDisplay#setCursor(int, int)
+     */
+    @SuppressWarnings("unused")
+    @Override
+    public void setCursor(final int x, final int y) {
+        // .
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.TerminalDisplay#beep()
+     */
+    @Override
+    public void beep() {
+        // .
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.TerminalDisplay#doResize(java.awt.Dimension, net.agilhard.terminal.emulation.RequestOrigin)
+     */
+    @Override
+    public Dimension doResize(final Dimension pendingResize, final RequestOrigin origin) {
+        this.columns = pendingResize.width;
+        this.rows = pendingResize.height;
+        if (this.backBuffer != null) {
+            this.backBuffer.doResize(pendingResize, origin);
+        }
+        return pendingResize;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.TerminalDisplay#scrollArea(int, int, int)
+     */
+    @SuppressWarnings("unused")
+    @Override
+    public void scrollArea(final int y, final int h, final int dy) {
+        // .
+    }
+
+}
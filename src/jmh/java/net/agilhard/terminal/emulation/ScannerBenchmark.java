@@ -0,0 +1,83 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the word at a time {@link PrintableScanner#scan(byte[], int, int)} with the byte at a time loop over the
+ * first megabyte of a workload, splitting it into printable runs the way the parser's ground state does.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScannerBenchmark {
+
+    /** The workload. */
+    @Param({ "ASCII_FLOOD", "SGR_LS", "UTF8_TEXT" })
+    private Workload workload;
+
+    /** The bytes. */
+    private byte[] bytes;
+
+    /**
+     * Set up the bytes.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.bytes = this.workload.bytes();
+    }
+
+    /**
+     * Split into runs with the word at a time scanner.
+     *
+     * @return the number of runs
+     */
+    @Benchmark
+    public int swar() {
+        final byte[] buf = this.bytes;
+        int runs = 0;
+        int i = 0;
+        while (i < buf.length) {
+            i = PrintableScanner.scan(buf, i, buf.length) + 1;
+            runs++;
+        }
+        return runs;
+    }
+
+    /**
+     * Split into runs with the byte at a time loop.
+     *
+     * @return the number of runs
+     */
+    @Benchmark
+    public int scalar() {
+        final byte[] buf = this.bytes;
+        int runs = 0;
+        int i = 0;
+        while (i < buf.length) {
+            i = PrintableScanner.scanScalar(buf, i, buf.length) + 1;
+            runs++;
+        }
+        return runs;
+    }
+
+}
@@ -0,0 +1,210 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Workloads replayed by the benchmarks.
+ * <p>
+ * Every workload is synthesized deterministically so runs are comparable. A real capture (e.g. taken with
+ * <code>script -q</code>) can be used instead by pointing the system property <code>workload.dir</code> at a
+ * directory containing <code>&lt;name&gt;.bin</code>, where name is the lower case enum constant.
+ */
+public enum Workload {
+
+    /** Plain ASCII log lines, as produced by <code>cat</code> of a large log file. */
+    ASCII_FLOOD {
+        @Override
+        void generate(final Random rnd, final Out out) {
+            while (out.size() < TARGET_SIZE) {
+                out.ascii("2014-03-0" + (1 + rnd.nextInt(9)) + " 12:" + (10 + rnd.nextInt(50)) + ":"
+                    + (10 + rnd.nextInt(50)) + " INFO  [main] net.agilhard.Service - ");
+                out.ascii(words(rnd, 4 + rnd.nextInt(12)));
+                out.ascii("\r\n");
+            }
+        }
+    },
+
+    /** SGR-heavy output, as produced by <code>ls --color</code> or a colorizing compiler. */
+    SGR_LS {
+        @Override
+        void generate(final Random rnd, final Out out) {
+            while (out.size() < TARGET_SIZE) {
+                for (int col = 0; col < 4; col++) {
+                    out.ascii("\033[0");
+                    if (rnd.nextBoolean()) {
+                        out.ascii(";1");
+                    }
+                    out.ascii(";3" + rnd.nextInt(8) + "m");
+                    out.ascii(word(rnd));
+                    out.ascii("\033[0m  ");
+                }
+                out.ascii("\r\n");
+            }
+        }
+    },
+
+    /** Full-screen redraws with cursor addressing, as produced by <code>top</code> or <code>vim</code>. */
+    FULL_SCREEN {
+        @Override
+        void generate(final Random rnd, final Out out) {
+            while (out.size() < TARGET_SIZE) {
+                out.ascii("\033[H\033[2J");
+                for (int row = 1; row <= ROWS; row++) {
+                    out.ascii("\033[" + row + ";1H");
+                    if (row == 7) {
+                        out.ascii("\033[7m  PID USER      PR  NI    VIRT    RES  %CPU %MEM COMMAND\033[0m\033[K");
+                        continue;
+                    }
+                    out.ascii(String.format("%5d %-8s  20   0 %7d %6d %5.1f %4.1f ", Integer.valueOf(rnd.nextInt(30000)),
+                        word(rnd), Integer.valueOf(rnd.nextInt(9999999)), Integer.valueOf(rnd.nextInt(999999)),
+                        Double.valueOf(rnd.nextDouble() * 100), Double.valueOf(rnd.nextDouble() * 10)));
+                    out.ascii(word(rnd));
+                    out.ascii("\033[K");
+                }
+                out.ascii("\033[" + ROWS + ";" + COLUMNS + "H");
+            }
+        }
+    },
+
+    /** Output inside a scrolling region, as produced by pagers and split-screen applications. */
+    SCROLL_REGION {
+        @Override
+        void generate(final Random rnd, final Out out) {
+            out.ascii("\033[2;" + (ROWS - 1) + "r");
+            while (out.size() < TARGET_SIZE) {
+                out.ascii("\033[" + (ROWS - 1) + ";1H");
+                for (int i = 0; i < 20; i++) {
+                    out.ascii(words(rnd, 3 + rnd.nextInt(8)));
+                    out.ascii("\r\n");
+                }
+                out.ascii("\033[2;1H");
+                for (int i = 0; i < 5; i++) {
+                    out.ascii("\033M");
+                    out.ascii(words(rnd, 3));
+                }
+                out.ascii("\033D\033E");
+            }
+            out.ascii("\033[r");
+        }
+    },
+
+    /** UTF-8 text with umlauts and box drawing characters, as produced by <code>htop</code> or German logs. */
+    UTF8_TEXT {
+        @Override
+        void generate(final Random rnd, final Out out) {
+            while (out.size() < TARGET_SIZE) {
+                out.utf8("\u2502 Gr\u00f6\u00dfe \u00fcber ");
+                out.ascii(words(rnd, 2 + rnd.nextInt(6)));
+                out.utf8(" [\u2588\u2588\u2588\u2591\u2591] \u00c4nderung \u2502\r\n");
+            }
+        }
+    };
+
+    /** The column count the workloads are generated for. */
+    public static final int COLUMNS = 80;
+
+    /** The row count the workloads are generated for. */
+    public static final int ROWS = 24;
+
+    /** The approximate size of a generated workload. */
+    static final int TARGET_SIZE = 1 << 20;
+
+    /** The words used for generated text. */
+    private static final String[] WORDS = { "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliett", "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango" };
+
+    /**
+     * Generate the workload.
+     *
+     * @param rnd
+     *            the random source
+     * @param out
+     *            the output
+     */
+    abstract void generate(Random rnd, Out out);
+
+    /**
+     * Gets the workload bytes, either the capture from <code>workload.dir</code> or a synthesized one.
+     *
+     * @return the bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public byte[] bytes() throws IOException {
+        final String dir = System.getProperty("workload.dir");
+        if (dir != null) {
+            final File file = new File(dir, this.name().toLowerCase() + ".bin");
+            if (file.isFile()) {
+                return Files.readAllBytes(file.toPath());
+            }
+        }
+        final Out out = new Out();
+        this.generate(new Random(this.ordinal()), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Pick a word.
+     *
+     * @param rnd
+     *            the random source
+     * @return the word
+     */
+    static String word(final Random rnd) {
+        return WORDS[rnd.nextInt(WORDS.length)];
+    }
+
+    /**
+     * Pick some words separated by blanks.
+     *
+     * @param rnd
+     *            the random source
+     * @param count
+     *            the word count
+     * @return the words
+     */
+    static String words(final Random rnd, final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(word(rnd));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Byte sink used while generating.
+     */
+    static class Out extends ByteArrayOutputStream {
+
+        /**
+         * Append ascii text.
+         *
+         * @param s
+         *            the text
+         */
+        void ascii(final String s) {
+            final byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            this.write(b, 0, b.length);
+        }
+
+        /**
+         * Append UTF-8 text.
+         *
+         * @param s
+         *            the text
+         */
+        void utf8(final String s) {
+            final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            this.write(b, 0, b.length);
+        }
+    }
+
+}
@@ -1,8 +1,10 @@
 package net.agilhard.terminal.emulation;
 
 import java.awt.Dimension;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Iterator;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -17,20 +19,53 @@ public class BackBuffer {
     /** The Constant NL. */
     private static final String NL = "\n";
 
+    /** The number of rows scrolled off the screen which are handed to the scroll buffer at once. */
+    private static final int SCROLL_BATCH = 64;
+
     /** The Logger. */
     private final Logger log = LoggerFactory.getLogger(BackBuffer.class);
 
-    /** The Constant EMPTY_CHAR. */
-    private static final char EMPTY_CHAR = ' '; // (char) 0x0;
+    /**
+     * The rows as a ring, row 0 of the screen is at index top. Scrolling the whole screen moves top, scrolling a
+     * region moves references, no characters are copied.
+     */
+    private ScreenRow[] rows;
+
+    /** The index of the first row of the screen in rows. */
+    private int top;
+
+    /**
+     * The rows of the screen not shown: the main screen while the alternate screen is active, else the alternate
+     * screen or null if it is not allocated. Switching screens swaps the references.
+     */
+    private ScreenRow[] otherRows;
+
+    /** The index of the first row of the screen not shown in otherRows. */
+    private int otherTop;
+
+    /** True, if the alternate screen is active. */
+    private boolean alternate;
 
-    /** The buf. */
-    private char[] buf;
+    /** The scroll buffer the rows scrolled off the top of the main screen go to, null if none. */
+    private ScrollBuffer scrollBuffer;
 
-    /** The style buf. */
-    private Style[] styleBuf;
+    /** The rows scrolled off the screen and not yet handed to the scroll buffer, oldest first. */
+    private final ScreenRow[] scrolledRows = new ScreenRow[SCROLL_BATCH];
 
-    /** The damage. */
-    private BitSet damage;
+    /** The number of scrolled rows. */
+    private int scrolledCount;
+
+    /** The rows handed to the scroll buffer, reused for the rows scrolled in. */
+    private final ScreenRow[] spareRows = new ScreenRow[SCROLL_BATCH];
+
+    /** The number of spare rows. */
+    private int spareCount;
+
+    /** The rows changed since the last frame was taken. */
+    private BitSet frameDamage;
+
+    /** The number of the last frame taken. */
+    private long frame;
 
     /** The style state. */
     private final StyleState styleState;
@@ -44,6 +79,24 @@ public class BackBuffer {
     /** The lock. */
     private final Lock lock = new ReentrantLock();
 
+    /** The cursor column carried through a resize, see {@link #setResizeCursor(int, int)}. */
+    private int resizeCursorX;
+
+    /** The cursor row carried through a resize, 1-based. */
+    private int resizeCursorY;
+
+    /** True, if the last resize moved the cursor by reflowing the lines. */
+    private boolean resizeCursorMoved;
+
+    /**
+     * The cursor column of the hidden main screen carried through a resize, see
+     * {@link #setHiddenResizeCursor(int, int)}.
+     */
+    private int hiddenCursorX;
+
+    /** The cursor row of the hidden main screen carried through a resize, 1-based. */
+    private int hiddenCursorY = 1;
+
     /**
      * Instantiates a new back buffer.
      *
@@ -71,13 +124,32 @@ public class BackBuffer {
         this.width = csWidth;
         this.height = csHeight;
 
-        this.buf = new char[csWidth * csHeight];
-        Arrays.fill(this.buf, EMPTY_CHAR);
+        this.rows = new ScreenRow[csHeight];
+        for (int i = 0; i < csHeight; i++) {
+            this.rows[i] = new ScreenRow(csWidth);
+        }
+        this.top = 0;
 
-        this.styleBuf = new Style[csWidth * csHeight];
-        Arrays.fill(this.styleBuf, Style.EMPTY);
+        this.frameDamage = new BitSet(csHeight);
+        this.frameDamage.set(0, csHeight);
+    }
 
-        this.damage = new BitSet(csWidth * csHeight);
+    /**
+     * Gets the width.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Gets the height.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+        return this.height;
     }
 
     /**
@@ -91,12 +163,68 @@ public class BackBuffer {
      */
     @SuppressWarnings("unused")
     public Dimension doResize(final Dimension pendingResize, final RequestOrigin origin) {
-        final char[] oldBuf = this.buf;
-        final Style[] oldStyleBuf = this.styleBuf;
+        final ScreenRow[] oldRows = this.rows;
+        final int oldTop = this.top;
         final int oldHeight = this.height;
         final int oldWidth = this.width;
+        this.flushScrolledRows();
+        // the spare rows have the old width
+        Arrays.fill(this.spareRows, null);
+        this.spareCount = 0;
+        if (this.alternate) {
+            // the hidden main screen is reflowed around its own cursor, which moves with its cell
+            final int cursorX = this.resizeCursorX;
+            final int cursorY = this.resizeCursorY;
+            this.setResizeCursor(this.hiddenCursorX, this.hiddenCursorY);
+            this.resizeRows(pendingResize, this.otherRows, this.otherTop, oldHeight, oldWidth,
+                this.scrollBuffer != null);
+            if (this.resizeCursorMoved) {
+                this.hiddenCursorX = this.resizeCursorX;
+                this.hiddenCursorY = this.resizeCursorY;
+            } else {
+                this.hiddenCursorY += this.height - oldHeight;
+            }
+            this.hiddenCursorY = Math.max(1, Math.min(this.hiddenCursorY, this.height));
+            this.otherRows = this.rows;
+            this.otherTop = this.top;
+            this.setResizeCursor(cursorX, cursorY);
+        } else {
+            // the hidden alternate screen is allocated again when it is used
+            this.otherRows = null;
+        }
+        this.resizeRows(pendingResize, oldRows, oldTop, oldHeight, oldWidth,
+            this.scrollBuffer != null && !this.alternate);
+        this.flushScrolledRows();
+        return pendingResize;
+    }
+
+    /**
+     * Allocate the rows for a new size and copy or reflow the old rows into them.
+     *
+     * @param pendingResize
+     *            the new size
+     * @param oldRows
+     *            the old rows
+     * @param oldTop
+     *            the index of the first row of the old screen
+     * @param oldHeight
+     *            the old height
+     * @param oldWidth
+     *            the old width
+     * @param capture
+     *            true, if the rows dropped at the top go to the scroll buffer
+     */
+    private void resizeRows(final Dimension pendingResize, final ScreenRow[] oldRows, final int oldTop,
+        final int oldHeight, final int oldWidth, final boolean capture) {
         this.allocateBuffers(pendingResize.width, pendingResize.height);
         this.clear();
+        this.resizeCursorMoved = false;
+
+        if (oldWidth != this.width) {
+            this.reflow(oldRows, oldTop, oldHeight, oldWidth, capture);
+            this.damageRows(0, this.height);
+            return;
+        }
 
         // copying lines...
         final int copyWidth = Math.min(oldWidth, this.width);
@@ -105,23 +233,317 @@ public class BackBuffer {
         final int oldStart = oldHeight - copyHeight;
         final int start = this.height - copyHeight;
 
+        if (capture) {
+            // the old rows are not used any more, they are handed over as they are
+            for (int i = 0; i < oldStart; i++) {
+                this.scrollOff(oldRows[(oldTop + i) % oldHeight]);
+            }
+        }
+
         for (int i = 0; i < copyHeight; i++) {
-            System.arraycopy(oldBuf, (oldStart + i) * oldWidth, this.buf, (start + i) * this.width, copyWidth);
-            System.arraycopy(oldStyleBuf, (oldStart + i) * oldWidth, this.styleBuf, (start + i) * this.width,
-                copyWidth);
+            final ScreenRow oldRow = oldRows[(oldTop + oldStart + i) % oldHeight];
+            final ScreenRow newRow = this.row(start + i);
+            System.arraycopy(oldRow.chars, 0, newRow.chars, 0, copyWidth);
+            System.arraycopy(oldRow.styleIds, 0, newRow.styleIds, 0, copyWidth);
+            newRow.wrapped = oldRow.wrapped;
         }
 
-        this.damage.set(0, this.width * this.height - 1, true);
+        this.damageRows(0, this.height);
+    }
 
-        return pendingResize;
+    /**
+     * Sets the scroll buffer the rows scrolled off the top of the main screen go to. The rows are collected and handed
+     * over in batches, see {@link #flushScrolledRows()}.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer, null for none
+     */
+    public void setScrollBuffer(final ScrollBuffer scrollBuffer) {
+        this.flushScrolledRows();
+        this.scrollBuffer = scrollBuffer;
+    }
+
+    /**
+     * Gets the scroll buffer.
+     *
+     * @return the scroll buffer, null if none
+     */
+    public ScrollBuffer getScrollBuffer() {
+        return this.scrollBuffer;
+    }
+
+    /**
+     * Collect a row which left the screen, handing the collected rows to the scroll buffer when the batch is full.
+     *
+     * @param row
+     *            the row, owned by this buffer until it is handed over
+     */
+    private void scrollOff(final ScreenRow row) {
+        if (this.scrolledCount == SCROLL_BATCH) {
+            this.flushScrolledRows();
+        }
+        this.scrolledRows[this.scrolledCount++] = row;
+    }
+
+    /**
+     * Hand the rows scrolled off the screen to the scroll buffer. The rows are kept for reuse.
+     */
+    public void flushScrolledRows() {
+        if (this.scrolledCount == 0) {
+            return;
+        }
+        this.scrollBuffer.addRows(this.scrolledRows, this.scrolledCount);
+        for (int i = 0; i < this.scrolledCount; i++) {
+            final ScreenRow row = this.scrolledRows[i];
+            if (row.chars.length == this.width && this.spareCount < SCROLL_BATCH) {
+                this.spareRows[this.spareCount++] = row;
+            }
+            this.scrolledRows[i] = null;
+        }
+        this.scrolledCount = 0;
+    }
+
+    /**
+     * Switch between the main and the alternate screen. The rows are swapped, not copied, the alternate screen keeps
+     * its content until it is cleared or the size changes.
+     *
+     * @param on
+     *            true for the alternate screen, false for the main screen
+     */
+    public void setAlternateScreen(final boolean on) {
+        if (on == this.alternate) {
+            return;
+        }
+        if (this.otherRows == null) {
+            this.otherRows = new ScreenRow[this.height];
+            for (int i = 0; i < this.height; i++) {
+                this.otherRows[i] = new ScreenRow(this.width);
+            }
+            this.otherTop = 0;
+        }
+        final ScreenRow[] shownRows = this.rows;
+        final int shownTop = this.top;
+        this.rows = this.otherRows;
+        this.top = this.otherTop;
+        this.otherRows = shownRows;
+        this.otherTop = shownTop;
+        this.alternate = on;
+        this.damageRows(0, this.height);
+    }
+
+    /**
+     * Checks if the alternate screen is active. Rows scrolled off the alternate screen do not belong to the history.
+     *
+     * @return true, if the alternate screen is active
+     */
+    public boolean isAlternateScreen() {
+        return this.alternate;
+    }
+
+    /**
+     * Rewrap the lines of the old rows to the new width. Rows joined by the wrapped flag form a line, the lines are
+     * laid out from the top of the screen, if they need more rows than the screen has the top rows are dropped or
+     * go to the scroll buffer. The cursor set with {@link #setResizeCursor(int, int)} moves with its cell.
+     *
+     * @param oldRows
+     *            the old rows
+     * @param oldTop
+     *            the index of the first row of the old screen
+     * @param oldHeight
+     *            the old height
+     * @param oldWidth
+     *            the old width
+     * @param capture
+     *            true, if the dropped rows go to the scroll buffer
+     */
+    private void reflow(final ScreenRow[] oldRows, final int oldTop, final int oldHeight, final int oldWidth,
+        final boolean capture) {
+        final int cursorRow = Math.min(Math.max(this.resizeCursorY - 1, 0), oldHeight - 1);
+        // trailing blank rows below the cursor are not kept
+        int lastRow = cursorRow;
+        for (int r = oldHeight - 1; r > cursorRow; r--) {
+            final ScreenRow row = oldRows[(oldTop + r) % oldHeight];
+            if (row.wrapped || row.getContentLength() > 0) {
+                lastRow = r;
+                break;
+            }
+        }
+
+        // the lines: first old row and length in cells
+        final int[] lineRows = new int[lastRow + 1];
+        final int[] lineLengths = new int[lastRow + 1];
+        int lineCount = 0;
+        int newRowCount = 0;
+        int cursorLine = 0;
+        int cursorOffset = 0;
+        for (int r = 0; r <= lastRow; r++) {
+            final int first = r;
+            while (r < lastRow && oldRows[(oldTop + r) % oldHeight].wrapped) {
+                r++;
+            }
+            int length = (r - first) * oldWidth + oldRows[(oldTop + r) % oldHeight].getContentLength();
+            if (cursorRow >= first && cursorRow <= r) {
+                cursorLine = lineCount;
+                cursorOffset = (cursorRow - first) * oldWidth + Math.min(this.resizeCursorX, oldWidth);
+                length = Math.max(length, cursorOffset);
+            }
+            lineRows[lineCount] = first;
+            lineLengths[lineCount] = length;
+            lineCount++;
+            newRowCount += this.rowsFor(length);
+        }
+
+        final int dropped = Math.max(newRowCount - this.height, 0);
+        final ScreenRow[] droppedRows = new ScreenRow[capture ? dropped : 0];
+        for (int i = 0; i < droppedRows.length; i++) {
+            droppedRows[i] = new ScreenRow(this.width);
+        }
+        int newRow = -dropped;
+        for (int line = 0; line < lineCount; line++) {
+            final int length = lineLengths[line];
+            final int rowCount = this.rowsFor(length);
+            if (line == cursorLine) {
+                final int rowInLine = Math.min(cursorOffset / this.width, rowCount - 1);
+                this.resizeCursorX = cursorOffset - rowInLine * this.width;
+                this.resizeCursorY = Math.max(newRow + rowInLine, 0) + 1;
+                this.resizeCursorMoved = true;
+            }
+            for (int offset = 0; offset < length;) {
+                final int oldRow = lineRows[line] + offset / oldWidth;
+                final int oldCol = offset % oldWidth;
+                final int targetRow = newRow + offset / this.width;
+                final int targetCol = offset % this.width;
+                final int count = Math.min(length - offset, Math.min(oldWidth - oldCol, this.width - targetCol));
+                if (targetRow >= 0 || capture) {
+                    final ScreenRow from = oldRows[(oldTop + oldRow) % oldHeight];
+                    final ScreenRow to = targetRow >= 0 ? this.row(targetRow) : droppedRows[dropped + targetRow];
+                    System.arraycopy(from.chars, oldCol, to.chars, targetCol, count);
+                    System.arraycopy(from.styleIds, oldCol, to.styleIds, targetCol, count);
+                }
+                offset += count;
+            }
+            for (int k = 0; k < rowCount - 1; k++) {
+                if (newRow + k >= 0) {
+                    this.row(newRow + k).wrapped = true;
+                } else if (capture) {
+                    droppedRows[dropped + newRow + k].wrapped = true;
+                }
+            }
+            newRow += rowCount;
+        }
+        for (final ScreenRow row : droppedRows) {
+            this.scrollOff(row);
+        }
+    }
+
+    /**
+     * Gets the number of rows a line needs at the current width.
+     *
+     * @param length
+     *            the length of the line
+     * @return the number of rows, at least 1
+     */
+    private int rowsFor(final int length) {
+        // a line filling its last row exactly does not need another row, the cursor waits at the end of it
+        return Math.max((length + this.width - 1) / this.width, 1);
+    }
+
+    /**
+     * Sets the cursor to carry through the next resize. If the resize reflows the lines,
+     * {@link #isResizeCursorMoved()} is true afterwards and the cursor is at the same cell of its line.
+     *
+     * @param x
+     *            the column, 0-based
+     * @param y
+     *            the row, 1-based
+     */
+    public void setResizeCursor(final int x, final int y) {
+        this.resizeCursorX = x;
+        this.resizeCursorY = y;
+        this.resizeCursorMoved = false;
+    }
+
+    /**
+     * Sets the cursor of the hidden main screen to carry through the next resize while the alternate screen is
+     * shown. The hidden screen is reflowed around it and it stays at the same cell of its line.
+     *
+     * @param x
+     *            the column, 0-based
+     * @param y
+     *            the row, 1-based
+     */
+    public void setHiddenResizeCursor(final int x, final int y) {
+        this.hiddenCursorX = x;
+        this.hiddenCursorY = y;
+    }
+
+    /**
+     * Gets the cursor column of the hidden main screen after the last resize.
+     *
+     * @return the column, 0-based
+     */
+    public int getHiddenResizeCursorX() {
+        return this.hiddenCursorX;
+    }
+
+    /**
+     * Gets the cursor row of the hidden main screen after the last resize.
+     *
+     * @return the row, 1-based
+     */
+    public int getHiddenResizeCursorY() {
+        return this.hiddenCursorY;
+    }
+
+    /**
+     * Checks if the last resize moved the cursor.
+     *
+     * @return true, if the lines were reflowed
+     */
+    public boolean isResizeCursorMoved() {
+        return this.resizeCursorMoved;
+    }
+
+    /**
+     * Gets the cursor column after the last resize.
+     *
+     * @return the column, 0-based
+     */
+    public int getResizeCursorX() {
+        return this.resizeCursorX;
+    }
+
+    /**
+     * Gets the cursor row after the last resize.
+     *
+     * @return the row, 1-based
+     */
+    public int getResizeCursorY() {
+        return this.resizeCursorY;
+    }
+
+    /**
+     * Mark a row as continued on the next row.
+     *
+     * @param y
+     *            the row, 0-based
+     * @param wrapped
+     *            true, if the text wrapped
+     */
+    void setWrapped(final int y, final boolean wrapped) {
+        if (y >= 0 && y < this.height) {
+            this.row(y).wrapped = wrapped;
+        }
     }
 
     /**
      * Clear.
      */
     public void clear() {
-        Arrays.fill(this.buf, EMPTY_CHAR);
-        this.damage.set(0, this.width * this.height, true);
+        for (final ScreenRow row : this.rows) {
+            Arrays.fill(row.chars, ScreenRow.EMPTY_CHAR);
+        }
+        this.damageRows(0, this.height);
     }
 
     /**
@@ -132,11 +554,13 @@ public class BackBuffer {
      * @param topY
      *            the top y
      * @param rightX
-     *            the right x
+     *            the right x, exclusive, clamped to the width
      * @param bottomY
      *            the bottom y
      */
     public void clearArea(final int leftX, final int topY, final int rightX, final int bottomY) {
+        // a cursor waiting to wrap is at x == width, clearing up to it must not leave the row
+        final int right = Math.min(rightX, this.width);
         if (topY > bottomY) {
             this.log.error("Attempt to clear upside down area: top:" + topY + " > bottom:" + bottomY);
             return;
@@ -145,12 +569,11 @@ public class BackBuffer {
             if (y > this.height - 1 || y < 0) {
                 this.log.error("attempt to clear line" + y + NL + "args were x1:" + leftX + " y1:" + topY + " x2:"
                     + rightX + "y2:" + bottomY);
-            } else if (leftX > rightX) {
-                this.log.error("Attempt to clear backwards area: left:" + leftX + " > right:" + rightX);
+            } else if (leftX > right) {
+                this.log.error("Attempt to clear backwards area: left:" + leftX + " > right:" + right);
             } else {
-                Arrays.fill(this.buf, y * this.width + leftX, y * this.width + rightX, EMPTY_CHAR);
-                Arrays.fill(this.styleBuf, y * this.width + leftX, y * this.width + rightX, Style.EMPTY);
-                this.damage.set(y * this.width + leftX, y * this.width + rightX, true);
+                this.row(y).clear(leftX, right);
+                this.frameDamage.set(y);
             }
         }
     }
@@ -182,12 +605,40 @@ public class BackBuffer {
             return;
         }
 
+        final ScreenRow row = this.row(adjY);
         for (int i = 0; i < len; i++) {
-            final int location = adjY * this.width + x + i;
-            this.buf[location] = (char) bytes[s + i]; // Arraycopy does not convert
-            this.styleBuf[location] = this.styleState.getCurrent();
+            row.chars[x + i] = (char) bytes[s + i]; // Arraycopy does not convert
+        }
+        Arrays.fill(row.styleIds, x, x + len, this.styleState.getCurrentId());
+        this.damage(row, adjY, x, x + len);
+    }
+
+    /**
+     * Draw chars.
+     *
+     * @param chars
+     *            the chars
+     * @param s
+     *            the s
+     * @param len
+     *            the len
+     * @param x
+     *            the x
+     * @param y
+     *            the y
+     */
+    public void drawChars(final char[] chars, final int s, final int len, final int x, final int y) {
+        final int adjY = y - 1;
+        if (adjY >= this.height || adjY < 0) {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("Attempt to draw line out of bounds: " + adjY + " at (" + x + "," + y + ")");
+            }
+            return;
         }
-        this.damage.set(adjY * this.width + x, adjY * this.width + x + len);
+        final ScreenRow row = this.row(adjY);
+        System.arraycopy(chars, s, row.chars, x, len);
+        Arrays.fill(row.styleIds, x, x + len, this.styleState.getCurrentId());
+        this.damage(row, adjY, x, x + len);
     }
 
     /**
@@ -208,16 +659,15 @@ public class BackBuffer {
             }
             return;
         }
-        str.getChars(0, str.length(), this.buf, adjY * this.width + x);
-        for (int i = 0; i < str.length(); i++) {
-            final int location = adjY * this.width + x + i;
-            this.styleBuf[location] = this.styleState.getCurrent();
-        }
-        this.damage.set(adjY * this.width + x, adjY * this.width + x + str.length());
+        final ScreenRow row = this.row(adjY);
+        str.getChars(0, str.length(), row.chars, x);
+        Arrays.fill(row.styleIds, x, x + str.length(), this.styleState.getCurrentId());
+        this.damage(row, adjY, x, x + str.length());
     }
 
     /**
-     * Scroll area.
+     * Scroll area. Moving up (negative dy) scrolls the rows from y + dy to y + h - 1, moving down the rows from y to
+     * y + h + dy - 1, both 0 based. The rows scrolled into the area are cleared.
      *
      * @param y
      *            the y
@@ -227,43 +677,107 @@ public class BackBuffer {
      *            the dy
      */
     public void scrollArea(final int y, final int h, final int dy) {
-        final int lastLine = y + h;
-        if (dy > 0) {
-            // Moving lines down
-            for (int line = lastLine - dy; line >= y; line--) {
-                if (line < 0) {
-                    this.log.error("Attempt to scroll line from above top of screen:" + line);
-                    continue;
-                }
-                if (line + dy + 1 > this.height) {
-                    this.log.error("Attempt to scroll line off bottom of screen:" + (line + dy));
-                    continue;
-                }
-                System.arraycopy(this.buf, line * this.width, this.buf, (line + dy) * this.width, this.width);
-                System.arraycopy(this.styleBuf, line * this.width, this.styleBuf, (line + dy) * this.width, this.width);
-                Util.bitsetCopy(this.damage, line * this.width, this.damage, (line + dy) * this.width, this.width);
-                //damage.set( (line + dy) * width, (line + dy + 1) * width );
+        if (dy == 0) {
+            return;
+        }
+        int from = dy < 0 ? y + dy : y;
+        int to = dy < 0 ? y + h : y + h + dy;
+        if (from < 0 || to > this.height) {
+            this.log.error("Attempt to scroll lines outside of screen: " + from + " to " + to);
+            from = Math.max(from, 0);
+            to = Math.min(to, this.height);
+        }
+        final int count = Math.abs(dy);
+        final int size = to - from;
+        if (size <= 0) {
+            return;
+        }
+        if (dy < 0 && from == 0 && this.scrollBuffer != null && !this.alternate) {
+            // the rows leaving the top of the main screen go to the history, spare rows take their place
+            for (int y0 = 0; y0 < Math.min(count, size); y0++) {
+                final int i = this.index(y0);
+                this.scrollOff(this.rows[i]);
+                this.rows[i] = this.spareCount > 0 ? this.spareRows[--this.spareCount] : new ScreenRow(this.width);
             }
+        }
+        if (count >= size) {
+            this.clearRows(from, to);
+            return;
+        }
+        if (from == 0 && to == this.height) {
+            // the whole screen, just move the ring
+            this.top = dy < 0 ? (this.top + count) % this.height : (this.top - count + this.height) % this.height;
         } else {
-            // Moving lines up
-            for (int line = y + dy + 1; line < lastLine; line++) {
-                if (line > this.height - 1) {
-                    this.log.error("Attempt to scroll line from below bottom of screen:" + line);
-                    continue;
-                }
-                if (line + dy < 0) {
-                    this.log.error("Attempt to scroll to line off top of screen" + (line + dy));
-                    continue;
-                }
+            // rotate the references in the region
+            final int shift = dy < 0 ? count : size - count;
+            this.reverseRows(from, from + shift);
+            this.reverseRows(from + shift, to);
+            this.reverseRows(from, to);
+        }
+        if (dy < 0) {
+            this.clearRows(to - count, to);
+        } else {
+            this.clearRows(from, from + count);
+        }
+        this.frameDamage.set(from, to);
+    }
 
-                System.arraycopy(this.buf, line * this.width, this.buf, (line + dy) * this.width, this.width);
-                System.arraycopy(this.styleBuf, line * this.width, this.styleBuf, (line + dy) * this.width, this.width);
-                Util.bitsetCopy(this.damage, line * this.width, this.damage, (line + dy) * this.width, this.width);
-                //damage.set( (line + dy) * width, (line + dy + 1) * width );
-            }
+    /**
+     * Reverse the order of rows.
+     *
+     * @param from
+     *            the first row
+     * @param to
+     *            the row after the last one
+     */
+    private void reverseRows(final int from, final int to) {
+        for (int a = from, b = to - 1; a < b; a++, b--) {
+            final int ia = this.index(a);
+            final int ib = this.index(b);
+            final ScreenRow tmp = this.rows[ia];
+            this.rows[ia] = this.rows[ib];
+            this.rows[ib] = tmp;
         }
     }
 
+    /**
+     * Clear whole rows.
+     *
+     * @param from
+     *            the first row
+     * @param to
+     *            the row after the last one
+     */
+    private void clearRows(final int from, final int to) {
+        for (int y = from; y < to; y++) {
+            this.row(y).clear(0, this.width);
+        }
+        this.frameDamage.set(from, to);
+    }
+
+    /**
+     * Gets the index of a row of the screen in the ring.
+     *
+     * @param y
+     *            the 0 based row
+     * @return the index
+     */
+    private int index(final int y) {
+        final int i = this.top + y;
+        return i >= this.height ? i - this.height : i;
+    }
+
+    /**
+     * Gets a row of the screen.
+     *
+     * @param y
+     *            the 0 based row
+     * @return the row
+     */
+    ScreenRow row(final int y) {
+        return this.rows[this.index(y)];
+    }
+
     /**
      * Gets the style lines.
      *
@@ -278,9 +792,12 @@ public class BackBuffer {
             final StringBuilder sb = new StringBuilder();
             for (int row = 0; row < this.height; row++) {
                 for (int col = 0; col < this.width; col++) {
-                    final Style style = this.styleBuf[row * this.width + col];
-                    int styleNum = style == null ? styleNum = 0 : style.getNumber();
-                    sb.append(String.format("%03d ", styleNum));
+                    final int styleNum = this.row(row).styleIds[col];
+                    // pad to three digits like %03d, without formatting every cell
+                    if (styleNum < 100) {
+                        sb.append(styleNum < 10 ? "00" : "0");
+                    }
+                    sb.append(styleNum).append(' ');
                 }
                 sb.append(NL);
             }
@@ -301,7 +818,7 @@ public class BackBuffer {
         try {
             final StringBuffer sb = new StringBuffer();
             for (int row = 0; row < this.height; row++) {
-                sb.append(this.buf, row * this.width, this.width);
+                sb.append(this.row(row).chars, 0, this.width);
                 sb.append('\n');
             }
             return sb.toString();
@@ -320,8 +837,9 @@ public class BackBuffer {
         try {
             final StringBuffer sb = new StringBuffer();
             for (int row = 0; row < this.height; row++) {
+                final ScreenRow screenRow = this.row(row);
                 for (int col = 0; col < this.width; col++) {
-                    final boolean isDamaged = this.damage.get(row * this.width + col);
+                    final boolean isDamaged = col >= screenRow.damageStart && col < screenRow.damageEnd;
                     sb.append(isDamaged ? 'X' : '-');
                 }
                 sb.append(NL);
@@ -338,7 +856,9 @@ public class BackBuffer {
     public void resetDamage() {
         this.lock.lock();
         try {
-            this.damage.clear();
+            for (final ScreenRow row : this.rows) {
+                row.resetDamage();
+            }
         } finally {
             this.lock.unlock();
         }
@@ -360,49 +880,62 @@ public class BackBuffer {
      */
     public void pumpRuns(final int x, final int y, final int w, final int h, final StyledRunConsumer consumer) {
 
-        final int startRow = y;
-        final int endRow = y + h;
-        final int startCol = x;
-        final int endCol = x + w;
+        final int startRow = Math.max(y, 0);
+        final int endRow = Math.min(y + h, this.height);
+        final int startCol = Math.max(x, 0);
+        final int endCol = Math.min(x + w, this.width);
+        if (startRow != y || endRow != y + h || startCol != x || endCol != x + w) {
+            this.log.error("Requested out of bounds runs:" + "x:" + x + " y:" + y + " w:" + w + " h:" + h);
+        }
 
         this.lock.lock();
         try {
             for (int row = startRow; row < endRow; row++) {
-                Style lastStyle = null;
-                int beginRun = startCol;
-                for (int col = startCol; col < endCol; col++) {
-                    final int location = row * this.width + col;
-                    //if(location < 0 || location > styleBuf.length ){
-                    if (location < 0 || location >= this.styleBuf.length) {
-                        this.log.error("Requested out of bounds runs:" + "x:" + x + " y:" + y + " w:" + w + " h:" + h);
-                        continue;
-                    }
-                    final Style cellStyle = this.styleBuf[location];
-                    if (lastStyle == null) {
-                        //begin line
-                        lastStyle = cellStyle;
-                    } else if (!cellStyle.equals(lastStyle)) {
-                        //start of new run
-                        consumer.consumeRun(beginRun, row, lastStyle, this.buf, row * this.width + beginRun,
-                            col - beginRun);
-                        beginRun = col;
-                        lastStyle = cellStyle;
-                    }
-                }
-                //end row
-                if (lastStyle == null) {
-                    this.log.error(
-                        "Style is null for run supposed to be from " + beginRun + " to " + endCol + "on row " + row);
-                } else {
-                    consumer.consumeRun(beginRun, row, lastStyle, this.buf, row * this.width + beginRun,
-                        endCol - beginRun);
-                }
+                final ScreenRow screenRow = this.row(row);
+                this.pumpRow(row, screenRow, startCol, endCol, consumer);
             }
         } finally {
             this.lock.unlock();
         }
     }
 
+    /**
+     * Pump the runs of a part of a row.
+     *
+     * @param row
+     *            the 0 based row
+     * @param screenRow
+     *            the row
+     * @param startCol
+     *            the first column
+     * @param endCol
+     *            the column after the last one
+     * @param consumer
+     *            the consumer
+     */
+    private void pumpRow(final int row, final ScreenRow screenRow, final int startCol, final int endCol,
+        final StyledRunConsumer consumer) {
+        if (startCol >= endCol) {
+            return;
+        }
+        final int[] styleIds = screenRow.styleIds;
+        int lastStyle = styleIds[startCol];
+        int beginRun = startCol;
+        for (int col = startCol + 1; col < endCol; col++) {
+            final int cellStyle = styleIds[col];
+            if (cellStyle != lastStyle) {
+                //start of new run
+                consumer.consumeRun(beginRun, row, StyleRegistry.get(lastStyle), screenRow.chars, beginRun,
+                    col - beginRun);
+                beginRun = col;
+                lastStyle = cellStyle;
+            }
+        }
+        //end row
+        consumer.consumeRun(beginRun, row, StyleRegistry.get(lastStyle), screenRow.chars, beginRun,
+            endCol - beginRun);
+    }
+
     /**
      * Pump runs from damage.
      *
@@ -410,46 +943,12 @@ public class BackBuffer {
      *            the consumer
      */
     public void pumpRunsFromDamage(final StyledRunConsumer consumer) {
-        final int startRow = 0;
-        final int endRow = this.height;
-        final int startCol = 0;
-        final int endCol = this.width;
         this.lock.lock();
         try {
-            for (int row = startRow; row < endRow; row++) {
-
-                Style lastStyle = null;
-                int beginRun = startCol;
-                for (int col = startCol; col < endCol; col++) {
-                    final int location = row * this.width + col;
-                    if (location < 0 || location > this.styleBuf.length) {
-                        this.log.error("Requested out of bounds runs: pumpFromDamage");
-                        continue;
-                    }
-                    final Style cellStyle = this.styleBuf[location];
-                    final boolean isDamaged = this.damage.get(location);
-                    if (!isDamaged) {
-                        if (lastStyle != null) {
-                            consumer.consumeRun(beginRun, row, lastStyle, this.buf, row * this.width + beginRun,
-                                col - beginRun);
-                        }
-                        beginRun = col;
-                        lastStyle = null;
-                    } else if (lastStyle == null) {
-                        //begin damaged run
-                        lastStyle = cellStyle;
-                    } else if (!cellStyle.equals(lastStyle)) {
-                        //start of new run
-                        consumer.consumeRun(beginRun, row, lastStyle, this.buf, row * this.width + beginRun,
-                            col - beginRun);
-                        beginRun = col;
-                        lastStyle = cellStyle;
-                    }
-                }
-                //end row
-                if (lastStyle != null) {
-                    consumer.consumeRun(beginRun, row, lastStyle, this.buf, row * this.width + beginRun,
-                        endCol - beginRun);
+            for (int row = 0; row < this.height; row++) {
+                final ScreenRow screenRow = this.row(row);
+                if (screenRow.isDamaged()) {
+                    this.pumpRow(row, screenRow, screenRow.damageStart, screenRow.damageEnd, consumer);
                 }
             }
         } finally {
@@ -457,13 +956,131 @@ public class BackBuffer {
         }
     }
 
+    /**
+     * Damage a part of a row.
+     *
+     * @param screenRow
+     *            the row
+     * @param row
+     *            the 0 based row
+     * @param fromCol
+     *            the first column
+     * @param toCol
+     *            the column after the last one
+     */
+    private void damage(final ScreenRow screenRow, final int row, final int fromCol, final int toCol) {
+        screenRow.damage(fromCol, toCol);
+        this.frameDamage.set(row);
+    }
+
+    /**
+     * Damage whole rows.
+     *
+     * @param fromRow
+     *            the first row
+     * @param toRow
+     *            the row after the last one
+     */
+    private void damageRows(final int fromRow, final int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            this.row(y).damage(0, this.width);
+        }
+        this.frameDamage.set(fromRow, toRow);
+    }
+
+    /**
+     * Take the rows changed since the last frame and start a new frame.
+     *
+     * @param cursorX
+     *            the cursor x
+     * @param cursorY
+     *            the cursor y
+     * @return the snapshot
+     */
+    DamageSnapshot takeFrame(final int cursorX, final int cursorY) {
+        int count = 0;
+        for (int row = this.frameDamage.nextSetBit(0); row >= 0 && row < this.height; row = this.frameDamage
+            .nextSetBit(this.frameDamage.nextClearBit(row))) {
+            count++;
+        }
+        final int[] ranges = new int[count << 1];
+        int i = 0;
+        for (int row = this.frameDamage.nextSetBit(0); i < ranges.length; row = this.frameDamage.nextSetBit(row)) {
+            ranges[i++] = row;
+            row = Math.min(this.frameDamage.nextClearBit(row), this.height);
+            ranges[i++] = row;
+        }
+        this.frameDamage.clear();
+        return new DamageSnapshot(++this.frame, this.height, this.width, ranges, cursorX, cursorY);
+    }
+
+    /**
+     * Checks if rows have changed since the last frame was taken.
+     *
+     * @return true, if changed
+     */
+    boolean hasFrameDamage() {
+        return !this.frameDamage.isEmpty();
+    }
+
     /**
      * Checks for damage.
      *
      * @return true, if successful
      */
     public boolean hasDamage() {
-        return this.damage.nextSetBit(0) != -1;
+        for (final ScreenRow row : this.rows) {
+            if (row.isDamaged()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Search the screen. The hits are found lazily, top row first, each row is copied under the lock into a buffer
+     * reused for all rows.
+     *
+     * @param query
+     *            the query
+     * @return the hits
+     */
+    public Iterator<SearchHit> search(final SearchQuery query) {
+        return new LineSearch(query) {
+
+            /** The next row. */
+            private int nextRow;
+
+            /** The chars of the current row. */
+            private char[] line = new char[0];
+
+            /** The view of the chars the matcher reads. */
+            private CharBuffer text = CharBuffer.wrap(this.line);
+
+            /* (non-Javadoc)
+             * @see net.agilhard.terminal.emulation.LineSearch#nextLine()
+             */
+            @Override
+            protected boolean nextLine() {
+                BackBuffer.this.lock.lock();
+                try {
+                    if (this.nextRow >= BackBuffer.this.height) {
+                        return false;
+                    }
+                    final int w = BackBuffer.this.width;
+                    if (this.line.length != w) {
+                        this.line = new char[w];
+                        this.text = CharBuffer.wrap(this.line);
+                    }
+                    System.arraycopy(BackBuffer.this.row(this.nextRow).chars, 0, this.line, 0, w);
+                    this.setLine(this.nextRow, this.text);
+                    this.nextRow++;
+                    return true;
+                } finally {
+                    BackBuffer.this.lock.unlock();
+                }
+            }
+        };
     }
 
     /**
@@ -0,0 +1,23 @@
+package net.agilhard.terminal.emulation;
+
+/**
+ * A {@link TerminalDisplay} which is updated once per frame instead of once per operation.
+ * <p>
+ * The emulator collects the damage for a time and byte budget, see {@link Emulator#setFrameBudget(long, int)}, and
+ * then publishes a single {@link DamageSnapshot}. {@link #setCursor(int, int)} and
+ * {@link #scrollArea(int, int, int)} are not called for such a display, the cursor and the scrolled rows are part of
+ * the snapshot. The display repaints the dirty rows, e.g. with {@link BackBuffer#pumpRuns(int, int, int, int,
+ * StyledRunConsumer)}, so it repaints at most once per frame regardless of how many bytes arrived.
+ */
+public interface BatchedTerminalDisplay extends TerminalDisplay {
+
+    /**
+     * Publish a frame. Called on the emulator thread, the display should hand the snapshot over to its rendering
+     * thread and return.
+     *
+     * @param snapshot
+     *            the snapshot
+     */
+    void publishFrame(DamageSnapshot snapshot);
+
+}
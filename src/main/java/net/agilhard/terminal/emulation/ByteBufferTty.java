@@ -0,0 +1,27 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Tty} which can read into a {@link ByteBuffer}.
+ * <p>
+ * The {@link TtyChannel} prefers this method if the tty implements it. It passes a heap buffer wrapping its read
+ * buffer, which the parser works on. Native ttys can read into reused direct memory and copy the result in bulk,
+ * without a temporary array per read.
+ */
+public interface ByteBufferTty extends Tty {
+
+    /**
+     * Read bytes into the remaining space of the buffer, starting at its position. The position is advanced by the
+     * number of bytes read.
+     *
+     * @param dst
+     *            the buffer
+     * @return the number of bytes read, or -1 at the end of the stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+}
@@ -0,0 +1,240 @@
+package net.agilhard.terminal.emulation;
+
+/**
+ * The style of a cell as plain values, for programs reading a {@link HeadlessTerminal} without AWT.
+ * <p>
+ * Colors are RGB values <code>0xRRGGBB</code>, an indexed color is resolved through the {@link ColorPalette} and
+ * also keeps its index. The default colors of the terminal are {@link #DEFAULT_COLOR}, the program decides what they
+ * look like. A reverse cell reports its colors unswapped, see {@link #isReverse()}.
+ */
+public final class CellStyle {
+
+    /** The value of a default color. */
+    public static final int DEFAULT_COLOR = -1;
+
+    /** The foreground. */
+    private final int foreground;
+
+    /** The background. */
+    private final int background;
+
+    /** The palette index of the foreground, -1 if not indexed. */
+    private final int foregroundIndex;
+
+    /** The palette index of the background, -1 if not indexed. */
+    private final int backgroundIndex;
+
+    /** The options as bit mask. */
+    private final int options;
+
+    /**
+     * Instantiates a new cell style.
+     *
+     * @param style
+     *            the style
+     */
+    CellStyle(final Style style) {
+        this.foreground = rgb(style.getPackedForeground());
+        this.background = rgb(style.getPackedBackground());
+        this.foregroundIndex = index(style.getPackedForeground());
+        this.backgroundIndex = index(style.getPackedBackground());
+        this.options = style.getOptions();
+    }
+
+    /**
+     * Gets the RGB value of a packed color.
+     *
+     * @param packed
+     *            the packed color
+     * @return the RGB value, {@link #DEFAULT_COLOR} for the default color
+     */
+    private static int rgb(final int packed) {
+        if (packed == Style.COLOR_DEFAULT) {
+            return DEFAULT_COLOR;
+        }
+        if ((packed & ~0xFFFFFF) == Style.COLOR_INDEXED) {
+            return ColorPalette.getColor(packed & 0xFF).getRGB() & 0xFFFFFF;
+        }
+        return packed & 0xFFFFFF;
+    }
+
+    /**
+     * Gets the palette index of a packed color.
+     *
+     * @param packed
+     *            the packed color
+     * @return the index, -1 if the color is not indexed
+     */
+    private static int index(final int packed) {
+        return (packed & ~0xFFFFFF) == Style.COLOR_INDEXED ? packed & 0xFF : -1;
+    }
+
+    /**
+     * Gets the foreground.
+     *
+     * @return the RGB value, {@link #DEFAULT_COLOR} for the default foreground
+     */
+    public int getForeground() {
+        return this.foreground;
+    }
+
+    /**
+     * Gets the background.
+     *
+     * @return the RGB value, {@link #DEFAULT_COLOR} for the default background
+     */
+    public int getBackground() {
+        return this.background;
+    }
+
+    /**
+     * Gets the palette index of the foreground.
+     *
+     * @return the index, -1 if the foreground is the default or an RGB color
+     */
+    public int getForegroundIndex() {
+        return this.foregroundIndex;
+    }
+
+    /**
+     * Gets the palette index of the background.
+     *
+     * @return the index, -1 if the background is the default or an RGB color
+     */
+    public int getBackgroundIndex() {
+        return this.backgroundIndex;
+    }
+
+    /**
+     * Checks if an option is set.
+     *
+     * @param option
+     *            the option
+     * @return true, if set
+     */
+    private boolean has(final Style.Option option) {
+        return (this.options & option.bit()) != 0;
+    }
+
+    /**
+     * Checks if bold.
+     *
+     * @return true, if bold
+     */
+    public boolean isBold() {
+        return this.has(Style.Option.BOLD);
+    }
+
+    /**
+     * Checks if dim.
+     *
+     * @return true, if dim
+     */
+    public boolean isDim() {
+        return this.has(Style.Option.DIM);
+    }
+
+    /**
+     * Checks if italic.
+     *
+     * @return true, if italic
+     */
+    public boolean isItalic() {
+        return this.has(Style.Option.ITALIC);
+    }
+
+    /**
+     * Checks if underlined.
+     *
+     * @return true, if underlined
+     */
+    public boolean isUnderlined() {
+        return this.has(Style.Option.UNDERSCORE);
+    }
+
+    /**
+     * Checks if blinking.
+     *
+     * @return true, if blinking
+     */
+    public boolean isBlink() {
+        return this.has(Style.Option.BLINK);
+    }
+
+    /**
+     * Checks if reverse, the colors are swapped when the cell is shown.
+     *
+     * @return true, if reverse
+     */
+    public boolean isReverse() {
+        return this.has(Style.Option.REVERSE);
+    }
+
+    /**
+     * Checks if hidden.
+     *
+     * @return true, if hidden
+     */
+    public boolean isHidden() {
+        return this.has(Style.Option.HIDDEN);
+    }
+
+    /**
+     * Checks if crossed out.
+     *
+     * @return true, if crossed out
+     */
+    public boolean isCrossedOut() {
+        return this.has(Style.Option.CROSSED_OUT);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        int result = this.foreground;
+        result = 31 * result + this.background;
+        result = 31 * result + this.foregroundIndex;
+        result = 31 * result + this.backgroundIndex;
+        return 31 * result + this.options;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CellStyle)) {
+            return false;
+        }
+        final CellStyle other = (CellStyle) obj;
+        return this.foreground == other.foreground && this.background == other.background
+            && this.foregroundIndex == other.foregroundIndex && this.backgroundIndex == other.backgroundIndex
+            && this.options == other.options;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "CellStyle [foreground=" + colorString(this.foreground) + ", background=" + colorString(this.background)
+            + ", options=" + Integer.toBinaryString(this.options) + "]";
+    }
+
+    /**
+     * Gets a color as string.
+     *
+     * @param rgb
+     *            the RGB value or {@link #DEFAULT_COLOR}
+     * @return the string
+     */
+    private static String colorString(final int rgb) {
+        return rgb == DEFAULT_COLOR ? "default" : String.format("#%06x", rgb);
+    }
+
+}
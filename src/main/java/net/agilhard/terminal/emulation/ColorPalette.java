@@ -0,0 +1,78 @@
+package net.agilhard.terminal.emulation;
+
+import java.awt.Color;
+
+/**
+ * The 256 indexed colors: the 8 basic colors, their 8 bright variants, a 6x6x6 color cube and 24 shades of grey, as
+ * in xterm.
+ */
+public final class ColorPalette {
+
+    /** The number of indexed colors. */
+    public static final int SIZE = 256;
+
+    /** The intensities of the color cube. */
+    private static final int[] CUBE_LEVELS = { 0, 95, 135, 175, 215, 255 };
+
+    /** The colors. */
+    private static final Color[] COLORS = new Color[SIZE];
+
+    static {
+        final Color[] basic = { Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW, Color.BLUE, Color.MAGENTA,
+            Color.CYAN, Color.WHITE };
+        System.arraycopy(basic, 0, COLORS, 0, basic.length);
+        for (int i = 0; i < 8; i++) {
+            COLORS[8 + i] = new Color((i & 1) != 0 ? 255 : 85, (i & 2) != 0 ? 255 : 85, (i & 4) != 0 ? 255 : 85);
+        }
+        for (int i = 0; i < 216; i++) {
+            COLORS[16 + i] = new Color(CUBE_LEVELS[i / 36], CUBE_LEVELS[i / 6 % 6], CUBE_LEVELS[i % 6]);
+        }
+        for (int i = 0; i < 24; i++) {
+            final int level = 8 + i * 10;
+            COLORS[232 + i] = new Color(level, level, level);
+        }
+    }
+
+    /**
+     * Private constructor for utility class.
+     */
+    private ColorPalette() {
+        // .
+    }
+
+    /**
+     * Gets an indexed color.
+     *
+     * @param index
+     *            the index, 0 to 255
+     * @return the color
+     */
+    public static Color getColor(final int index) {
+        return COLORS[index];
+    }
+
+    /**
+     * Gets the index of the palette color nearest to an RGB color.
+     *
+     * @param rgb
+     *            the red, green and blue bytes
+     * @return the index
+     */
+    public static int nearest(final int rgb) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < SIZE; i++) {
+            final int other = COLORS[i].getRGB();
+            final int dr = (rgb >>> 16 & 0xFF) - (other >>> 16 & 0xFF);
+            final int dg = (rgb >>> 8 & 0xFF) - (other >>> 8 & 0xFF);
+            final int db = (rgb & 0xFF) - (other & 0xFF);
+            final int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+}
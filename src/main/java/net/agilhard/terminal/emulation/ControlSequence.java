@@ -3,164 +3,176 @@
  */
 package net.agilhard.terminal.emulation;
 
-import java.io.IOException;
-import java.util.ArrayList;
-
-import net.agilhard.terminal.emulation.CharacterUtils.CharacterType;
+import java.util.Arrays;
 
 /**
  * The Class ControlSequence.
+ * <p>
+ * One instance is owned by each {@link Emulator} and refilled by the {@link VtParser} for every escape and control
+ * sequence, the handlers in {@link TerminalWriter} must not keep a reference to it. All arguments, colon separated
+ * sub arguments and intermediate bytes live in preallocated arrays, surplus ones are dropped and values are clamped,
+ * so parsing a sequence never allocates.
  */
 public class ControlSequence {
 
+    /** The maximum number of arguments kept, further ones are dropped. */
+    private static final int MAX_ARGS = 32;
+
+    /** The maximum number of sub arguments kept over all arguments, further ones are dropped. */
+    private static final int MAX_SUB_ARGS = 32;
+
+    /** The maximum number of intermediate bytes kept, further ones are dropped. */
+    private static final int MAX_INTERMEDIATES = 4;
+
+    /** The largest argument value, larger values are clamped. */
+    private static final int MAX_VALUE = 65535;
+
     /** The argc. */
     private int argc;
 
-    /** The argv. */
-    private final int[] argv;
+    /** The argv, -1 marks an omitted argument. */
+    private final int[] argv = new int[MAX_ARGS];
+
+    /** The index of the first sub argument in subv for each argument. */
+    private final int[] subStart = new int[MAX_ARGS];
+
+    /** The number of sub arguments. */
+    private int subc;
+
+    /** The colon separated sub arguments of all arguments, -1 marks an omitted sub argument. */
+    private final int[] subv = new int[MAX_SUB_ARGS];
+
+    /** The array the next digit is added to, argv, subv or null if the value is dropped. */
+    private int[] current;
+
+    /** The index in current the next digit is added to. */
+    private int currentIndex;
+
+    /** The intermediate bytes. */
+    private final byte[] intermediates = new byte[MAX_INTERMEDIATES];
+
+    /** The number of intermediate bytes. */
+    private int intermediateCount;
 
     /** The mode table. */
     private Mode[] modeTable;
 
+    /** The private marker, 0 if none. */
+    private byte privateMarker;
+
     /** The final char. */
     private byte finalChar;
 
-    /** The start in buf. */
-    private int startInBuf;
-
-    /** The length in buf. */
-    private int lengthInBuf;
-
-    /** The buffer version. */
-    private int bufferVersion;
-
     /** The normal modes. */
     private static Mode[] normalModes = {
 
     };
 
-    /** The question mark modes. */
-    private static Mode[] questionMarkModes = { Mode.Null, Mode.CursorKey, Mode.ANSI, Mode.WideColumn,
-        Mode.SmoothScroll, Mode.ReverseScreen, Mode.RelativeOrigin, Mode.WrapAround, Mode.AutoRepeat, Mode.Interlace };
+    /** The question mark modes, indexed by the mode number. */
+    private static Mode[] questionMarkModes = Arrays.copyOf(new Mode[] { Mode.Null, Mode.CursorKey, Mode.ANSI,
+        Mode.WideColumn, Mode.SmoothScroll, Mode.ReverseScreen, Mode.RelativeOrigin, Mode.WrapAround, Mode.AutoRepeat,
+        Mode.Interlace }, 1050);
 
-    /** The unhandled chars. */
-    private ArrayList<Byte> unhandledChars;
+    static {
+        questionMarkModes[47] = Mode.AlternateScreen;
+        questionMarkModes[1047] = Mode.AlternateScreenClear;
+        questionMarkModes[1049] = Mode.AlternateScreenSaveCursor;
+    }
 
     /**
      * Instantiates a new control sequence.
-     *
-     * @param channel
-     *            the channel
-     * @throws IOException
-     *             Signals that an I/O exception has occurred.
      */
-    ControlSequence(final TtyChannel channel) throws IOException {
-        this.argv = new int[10];
+    ControlSequence() {
+        this.reset();
+    }
+
+    /**
+     * Reset before parsing the next sequence.
+     */
+    void reset() {
         this.argc = 0;
+        this.subc = 0;
+        this.current = null;
+        this.intermediateCount = 0;
         this.modeTable = normalModes;
-        this.readControlSequence(channel);
+        this.privateMarker = 0;
+        this.finalChar = 0;
     }
 
     /**
-     * Read control sequence.
+     * Sets the private marker.
      *
-     * @param channel
-     *            the channel
-     * @throws IOException
-     *             Signals that an I/O exception has occurred.
+     * @param b
+     *            the marker byte, one of <code>&lt; = &gt; ?</code>
      */
-    private void readControlSequence(final TtyChannel channel) throws IOException {
-        this.argc = 0;
-        // Read integer arguments
-        int digit = 0;
-        int seenDigit = 0;
-        int pos = -1;
-
-        this.bufferVersion = channel.serial;
-        this.startInBuf = channel.offset;
-
-        while (true) {
-            final byte b = channel.getChar();
-            pos++;
-            if (b == '?' && pos == 0) {
-                this.modeTable = questionMarkModes;
-            } else if (b == ';') {
-                if (digit > 0) {
-                    this.argc++;
-                    this.argv[this.argc] = 0;
-                    digit = 0;
-                }
-            } else if ('0' <= b && b <= '9') {
-                this.argv[this.argc] = this.argv[this.argc] * 10 + b - '0';
-                digit++;
-                seenDigit = 1;
-                continue;
-            } else if (':' <= b && b <= '?') {
-                this.addUnhandled(b);
-            } else if (0x40 <= b && b <= 0x7E) {
-                this.finalChar = b;
-                break;
-            } else {
-                this.addUnhandled(b);
-            }
-        }
-        if (this.bufferVersion == channel.serial) {
-            this.lengthInBuf = channel.offset - this.startInBuf;
-        } else {
-            this.lengthInBuf = -1;
+    void setPrivateMarker(final int b) {
+        this.privateMarker = (byte) b;
+        if (b == '?') {
+            this.modeTable = questionMarkModes;
         }
-        this.argc += seenDigit;
     }
 
     /**
-     * Adds the unhandled.
+     * Collect an intermediate byte.
      *
      * @param b
-     *            the b
+     *            the byte
      */
-    @SuppressWarnings("boxing")
-    private void addUnhandled(final byte b) {
-        if (this.unhandledChars == null) {
-            this.unhandledChars = new ArrayList<>();
+    void collect(final int b) {
+        if (this.intermediateCount < MAX_INTERMEDIATES) {
+            this.intermediates[this.intermediateCount++] = (byte) b;
         }
-        this.unhandledChars.add(b);
     }
 
     /**
-     * Push back reordered.
+     * Add a parameter byte, a digit or one of the separators <code>;</code> and <code>:</code>.
      *
-     * @param channel
-     *            the channel
-     * @return true, if successful
-     * @throws IOException
-     *             Signals that an I/O exception has occurred.
+     * @param b
+     *            the byte
      */
-    public boolean pushBackReordered(final TtyChannel channel) throws IOException {
-        if (this.unhandledChars == null) {
-            return false;
-        }
-        final byte[] bytes = new byte[1024]; // can't be more than the whole buffer...
-        int i = 0;
-        for (final byte b : this.unhandledChars) {
-            bytes[i++] = b;
+    void param(final int b) {
+        if (this.argc == 0) {
+            // first parameter byte opens the first argument
+            this.openArg();
         }
-        bytes[i++] = (byte) CharacterUtils.ESC;
-        bytes[i++] = (byte) '[';
-
-        if (this.modeTable == questionMarkModes) {
-            bytes[i++] = (byte) '?';
-        }
-        for (int argi = 0; argi < this.argc; argi++) {
-            if (argi != 0) {
-                bytes[i++] = (byte) ';';
+        if (b == ';') {
+            if (this.argc < MAX_ARGS) {
+                this.openArg();
+            } else {
+                this.current = null;
             }
-            for (final byte b : Integer.toString(this.argv[argi]).getBytes("UTF-8")) {
-                bytes[i++] = b;
+        } else if (b == ':') {
+            if (this.current != null && this.subc < MAX_SUB_ARGS) {
+                this.subv[this.subc] = -1;
+                this.current = this.subv;
+                this.currentIndex = this.subc++;
+            } else {
+                this.current = null;
             }
+        } else if (this.current != null) {
+            final int value = this.current[this.currentIndex];
+            this.current[this.currentIndex] = Math.min((value < 0 ? 0 : value) * 10 + b - '0', MAX_VALUE);
         }
-        bytes[i++] = this.finalChar;
-        channel.pushBackBuffer(bytes, i);
-        return true;
+    }
+
+    /**
+     * Open the next argument.
+     */
+    private void openArg() {
+        this.argv[this.argc] = -1;
+        this.subStart[this.argc] = this.subc;
+        this.current = this.argv;
+        this.currentIndex = this.argc++;
+    }
+
+    /**
+     * Sets the final char.
+     *
+     * @param b
+     *            the new final char
+     */
+    void setFinalChar(final int b) {
+        this.finalChar = (byte) b;
     }
 
     /**
@@ -178,16 +190,70 @@ public class ControlSequence {
      * @param index
      *            the index
      * @param def
-     *            the def
+     *            the default, returned for missing and omitted arguments
      * @return the arg
      */
     final int getArg(final int index, final int def) {
-        if (index >= this.argc) {
+        if (index >= this.argc || this.argv[index] < 0) {
             return def;
         }
         return this.argv[index];
     }
 
+    /**
+     * Gets the number of colon separated sub arguments of an argument.
+     *
+     * @param index
+     *            the index of the argument
+     * @return the sub argument count
+     */
+    final int getSubCount(final int index) {
+        if (index >= this.argc) {
+            return 0;
+        }
+        final int end = index + 1 < this.argc ? this.subStart[index + 1] : this.subc;
+        return end - this.subStart[index];
+    }
+
+    /**
+     * Gets a colon separated sub argument.
+     *
+     * @param index
+     *            the index of the argument
+     * @param sub
+     *            the index of the sub argument
+     * @param def
+     *            the default, returned for missing and omitted sub arguments
+     * @return the sub argument
+     */
+    final int getSubArg(final int index, final int sub, final int def) {
+        if (sub >= this.getSubCount(index)) {
+            return def;
+        }
+        final int value = this.subv[this.subStart[index] + sub];
+        return value < 0 ? def : value;
+    }
+
+    /**
+     * Gets the intermediate count.
+     *
+     * @return the intermediate count
+     */
+    public int getIntermediateCount() {
+        return this.intermediateCount;
+    }
+
+    /**
+     * Gets an intermediate byte.
+     *
+     * @param index
+     *            the index
+     * @return the intermediate byte
+     */
+    public byte getIntermediate(final int index) {
+        return this.intermediates[index];
+    }
+
     /**
      * Append to buffer.
      *
@@ -196,43 +262,39 @@ public class ControlSequence {
      */
     public final void appendToBuffer(final StringBuffer sb) {
         sb.append("ESC[");
-        if (this.modeTable == questionMarkModes) {
-            sb.append("?");
+        if (this.privateMarker != 0) {
+            sb.append((char) this.privateMarker);
         }
 
-        String sep = "";
         for (int i = 0; i < this.argc; i++) {
-            sb.append(sep);
-            sb.append(this.argv[i]);
-            sep = ";";
-        }
-        sb.append((char) this.finalChar);
-
-        if (this.unhandledChars != null) {
-            sb.append(" Unhandled:");
-            CharacterType last = CharacterType.NONE;
-            for (final byte b : this.unhandledChars) {
-                last = CharacterUtils.appendChar(sb, last, (char) b);
+            if (i > 0) {
+                sb.append(';');
+            }
+            if (this.argv[i] >= 0) {
+                sb.append(this.argv[i]);
+            }
+            final int subCount = this.getSubCount(i);
+            for (int j = 0; j < subCount; j++) {
+                sb.append(':');
+                final int sub = this.subv[this.subStart[i] + j];
+                if (sub >= 0) {
+                    sb.append(sub);
+                }
             }
         }
+        for (int i = 0; i < this.intermediateCount; i++) {
+            sb.append((char) this.intermediates[i]);
+        }
+        sb.append((char) this.finalChar);
     }
 
     /**
-     * Append actual bytes read.
+     * Gets the private marker.
      *
-     * @param sb
-     *            the sb
-     * @param buffer
-     *            the buffer
+     * @return the private marker, 0 if none
      */
-    public final void appendActualBytesRead(final StringBuffer sb, final TtyChannel buffer) {
-        if (this.lengthInBuf == -1) {
-            sb.append("TermIOBuffer filled in reading");
-        } else if (this.bufferVersion != buffer.serial) {
-            sb.append("TermIOBuffer filled after reading");
-        } else {
-            buffer.appendBuf(sb, this.startInBuf, this.lengthInBuf);
-        }
+    public byte getPrivateMarker() {
+        return this.privateMarker;
     }
 
     /**
@@ -253,4 +315,4 @@ public class ControlSequence {
         return this.modeTable;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,174 @@
+package net.agilhard.terminal.emulation;
+
+/**
+ * The rows changed since the previous frame and the cursor position, published to a {@link BatchedTerminalDisplay}.
+ * <p>
+ * A snapshot is immutable, it can be handed to the rendering thread as is. The dirty rows are kept as sorted, non
+ * overlapping ranges of 0 based rows, the end of a range is exclusive.
+ */
+public final class DamageSnapshot {
+
+    /** The frame number, counting from 1. */
+    private final long frame;
+
+    /** The row count of the screen. */
+    private final int rowCount;
+
+    /** The column count of the screen. */
+    private final int columnCount;
+
+    /** The ranges, start and end of every range. */
+    private final int[] ranges;
+
+    /** The cursor x. */
+    private final int cursorX;
+
+    /** The cursor y. */
+    private final int cursorY;
+
+    /**
+     * Instantiates a new damage snapshot.
+     *
+     * @param frame
+     *            the frame number
+     * @param rowCount
+     *            the row count
+     * @param columnCount
+     *            the column count
+     * @param ranges
+     *            the ranges, start and end of every range, owned by the snapshot
+     * @param cursorX
+     *            the cursor x
+     * @param cursorY
+     *            the cursor y
+     */
+    DamageSnapshot(final long frame, final int rowCount, final int columnCount, final int[] ranges, final int cursorX,
+        final int cursorY) {
+        this.frame = frame;
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.ranges = ranges;
+        this.cursorX = cursorX;
+        this.cursorY = cursorY;
+    }
+
+    /**
+     * Gets the frame number.
+     *
+     * @return the frame number
+     */
+    public long getFrame() {
+        return this.frame;
+    }
+
+    /**
+     * Gets the row count.
+     *
+     * @return the row count
+     */
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * Gets the column count.
+     *
+     * @return the column count
+     */
+    public int getColumnCount() {
+        return this.columnCount;
+    }
+
+    /**
+     * Gets the number of dirty row ranges.
+     *
+     * @return the range count
+     */
+    public int getRangeCount() {
+        return this.ranges.length >> 1;
+    }
+
+    /**
+     * Gets the first row of a range.
+     *
+     * @param index
+     *            the index of the range
+     * @return the first row
+     */
+    public int getRangeStart(final int index) {
+        return this.ranges[index << 1];
+    }
+
+    /**
+     * Gets the end of a range.
+     *
+     * @param index
+     *            the index of the range
+     * @return the row after the last row
+     */
+    public int getRangeEnd(final int index) {
+        return this.ranges[(index << 1) + 1];
+    }
+
+    /**
+     * Checks if a row is dirty.
+     *
+     * @param row
+     *            the 0 based row
+     * @return true, if dirty
+     */
+    public boolean isRowDirty(final int row) {
+        for (int i = 0; i < this.ranges.length; i += 2) {
+            if (row < this.ranges[i]) {
+                return false;
+            }
+            if (row < this.ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if no row is dirty.
+     *
+     * @return true, if empty
+     */
+    public boolean isEmpty() {
+        return this.ranges.length == 0;
+    }
+
+    /**
+     * Gets the cursor x.
+     *
+     * @return the cursor x
+     */
+    public int getCursorX() {
+        return this.cursorX;
+    }
+
+    /**
+     * Gets the cursor y, 1 based like {@link TerminalDisplay#setCursor(int, int)}.
+     *
+     * @return the cursor y
+     */
+    public int getCursorY() {
+        return this.cursorY;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DamageSnapshot[frame=").append(this.frame).append(" rows=");
+        for (int i = 0; i < this.ranges.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(this.ranges[i]).append('-').append(this.ranges[i + 1]);
+        }
+        return sb.append(" cursor=").append(this.cursorX).append(',').append(this.cursorY).append(']').toString();
+    }
+
+}
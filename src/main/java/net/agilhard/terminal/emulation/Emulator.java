@@ -22,7 +22,6 @@ import static net.agilhard.terminal.emulation.CharacterUtils.BEL;
 import static net.agilhard.terminal.emulation.CharacterUtils.BS;
 import static net.agilhard.terminal.emulation.CharacterUtils.CR;
 import static net.agilhard.terminal.emulation.CharacterUtils.DEVICE_ATTRIBUTES_RESPONSE;
-import static net.agilhard.terminal.emulation.CharacterUtils.ESC;
 import static net.agilhard.terminal.emulation.CharacterUtils.FF;
 import static net.agilhard.terminal.emulation.CharacterUtils.LF;
 import static net.agilhard.terminal.emulation.CharacterUtils.TAB;
@@ -31,6 +30,7 @@ import static net.agilhard.terminal.emulation.CharacterUtils.VT;
 import java.awt.Dimension;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
@@ -43,6 +43,12 @@ import net.agilhard.terminal.emulation.CharacterUtils.CharacterType;
  */
 public class Emulator {
 
+    /** The default time between two frames for a {@link BatchedTerminalDisplay}. */
+    public static final long DEFAULT_FRAME_INTERVAL_MILLIS = 16;
+
+    /** The default number of bytes processed before a frame is published regardless of the time. */
+    public static final int DEFAULT_FRAME_BYTES = 256 * 1024;
+
     /** The controller. */
     private final TerminalEmulationController controller;
 
@@ -58,6 +64,21 @@ public class Emulator {
     /** The channel. */
     private final TtyChannel channel;
 
+    /** The parser. */
+    private final VtParser parser;
+
+    /** The time between two frames in nanoseconds. */
+    private long frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRAME_INTERVAL_MILLIS);
+
+    /** The number of bytes processed before a frame is published. */
+    private int frameBytes = DEFAULT_FRAME_BYTES;
+
+    /** The number of bytes processed since the last frame. */
+    private int bytesSinceFrame;
+
+    /** The time of the last frame. */
+    private long lastFrameNanos = System.nanoTime();
+
     /**
      * Instantiates a new emulator.
      *
@@ -72,6 +93,7 @@ public class Emulator {
         this.channel = channel;
         this.controller = controller;
         this.tw = tw;
+        this.parser = new VtParser(this, new ControlSequence());
     }
 
     /**
@@ -88,6 +110,22 @@ public class Emulator {
         }
     }
 
+    /**
+     * Sets the budget for collecting damage before a frame is published to a {@link BatchedTerminalDisplay}. A frame
+     * is published when the interval has passed or the number of bytes has been processed since the last frame,
+     * and whenever the output pauses, i.e. the tty has no more bytes ready. A tty which cannot tell how many bytes
+     * are ready gets a frame after every read.
+     *
+     * @param intervalMillis
+     *            the time between two frames
+     * @param bytes
+     *            the number of bytes
+     */
+    public void setFrameBudget(final long intervalMillis, final int bytes) {
+        this.frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.frameBytes = bytes;
+    }
+
     /**
      * Start.
      */
@@ -125,6 +163,7 @@ public class Emulator {
             hasError = true;
         }
         this.sessionRunning.set(false);
+        this.publishFrame(System.nanoTime());
 
         if (this.controller != null) {
             if (hasError && this.controller.isCloseOnError()) {
@@ -153,21 +192,165 @@ public class Emulator {
     }
 
     /**
-     * Single iteration.
+     * Single iteration, reads the next chunk from the channel and parses it.
      *
      * @throws IOException
      *             Signals that an I/O exception has occurred.
      */
     void singleIteration() throws IOException {
-        byte b = this.channel.getChar();
+        final int length = this.channel.fill();
+        final int offset = this.channel.offset;
+        this.channel.consume(length);
+        this.processChunk(this.channel.buf, offset, length, false);
+    }
+
+    /**
+     * Process a chunk of output of the remote side pushed by the caller, instead of reading it in {@link #start()}.
+     * The call parses the chunk and returns; the parser state is kept, so an escape sequence or a multi byte char
+     * may be split between two chunks. The chunks of a session must be processed one after the other, not from two
+     * threads at once and not while {@link #start()} runs, but calls may come from any thread of a pool or event
+     * loop. Replies of the emulator are written to the {@link ReplyWriter} of the channel,
+     * {@link #sendBytes(byte[])} only sends while {@link #getSessionRunning()} is set. A {@link BatchedTerminalDisplay}
+     * gets a frame after every chunk.
+     *
+     * @param buf
+     *            the buf
+     * @param offset
+     *            the offset
+     * @param length
+     *            the length
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void process(final byte[] buf, final int offset, final int length) throws IOException {
+        this.processChunk(buf, offset, length, true);
+    }
 
+    /**
+     * Parse a chunk and publish a frame if the budget is used up or the output pauses.
+     *
+     * @param buf
+     *            the buf
+     * @param offset
+     *            the offset
+     * @param length
+     *            the length
+     * @param pushed
+     *            true, if the caller pushed the chunk, false if it was read from the channel
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void processChunk(final byte[] buf, final int offset, final int length, final boolean pushed)
+        throws IOException {
+        this.parser.parse(buf, offset, length);
+        // the rows scrolled off while parsing the chunk go to the history at once
+        this.tw.flushScrolledRows();
+
+        if (this.tw.isBatched()) {
+            this.bytesSinceFrame += length;
+            final long now = System.nanoTime();
+            // the tty is only asked for ready bytes while a frame is pending, a pushed chunk always ends a frame
+            if (this.bytesSinceFrame >= this.frameBytes || now - this.lastFrameNanos >= this.frameIntervalNanos
+                || pushed || this.channel.available() == 0) {
+                this.publishFrame(now);
+            }
+        }
+    }
+
+    /**
+     * Publish the damage collected since the last frame.
+     *
+     * @param now
+     *            the current time in nanoseconds
+     */
+    private void publishFrame(final long now) {
+        synchronized (this.tw) {
+            this.tw.publishFrame();
+        }
+        this.bytesSinceFrame = 0;
+        this.lastFrameNanos = now;
+    }
+
+    /**
+     * Print a run of printable characters, wrapping at the end of the line.
+     *
+     * @param buf
+     *            the buffer
+     * @param start
+     *            the start
+     * @param length
+     *            the length
+     */
+    void print(final byte[] buf, final int start, final int length) {
+        if (this.channel.hasPendingChar()) {
+            // completes or drops the character left incomplete by the previous run
+            this.printText(buf, start, length);
+            return;
+        }
+        int off = start;
+        int remaining = length;
+        while (remaining > 0) {
+            final int amountInLine = Math.max(0, Math.min(remaining, this.tw.distanceToLineEnd()));
+            this.tw.writeASCII(buf, off, amountInLine);
+            off += amountInLine;
+            remaining -= amountInLine;
+        }
+    }
+
+    /**
+     * Print a run of text containing bytes above 0x7F, decoding it in the channel's charset.
+     *
+     * @param buf
+     *            the buffer
+     * @param start
+     *            the start
+     * @param length
+     *            the length
+     */
+    void printText(final byte[] buf, final int start, final int length) {
+        final int count = this.channel.decode(buf, start, length);
+        this.writeChars(this.channel.getDecodedChars(), count);
+    }
+
+    /**
+     * Write decoded characters, wrapping at the end of the line.
+     *
+     * @param chars
+     *            the chars
+     * @param count
+     *            the number of chars
+     */
+    private void writeChars(final char[] chars, final int count) {
+        int off = 0;
+        int remaining = count;
+        while (remaining > 0) {
+            final int amountInLine = Math.max(0, Math.min(remaining, this.tw.distanceToLineEnd()));
+            this.tw.writeChars(chars, off, amountInLine);
+            off += amountInLine;
+            remaining -= amountInLine;
+        }
+    }
+
+    /**
+     * Drop a character left incomplete by the last text run, it has been interrupted by a control.
+     */
+    private void flushPendingChar() {
+        if (this.channel.hasPendingChar()) {
+            this.writeChars(this.channel.getDecodedChars(), this.channel.flushDecoder());
+        }
+    }
+
+    /**
+     * Execute a C0 control character.
+     *
+     * @param b
+     *            the control character
+     */
+    void execute(final int b) {
+        this.flushPendingChar();
         switch (b) {
         case 0:
             break;
-        case ESC: // ESC
-            b = this.channel.getChar();
-            this.handleESC(b);
-            break;
         case BEL:
             this.tw.beep();
             break;
@@ -187,91 +370,58 @@ public class Emulator {
             this.tw.newLine();
             break;
         default:
-            if (b <= CharacterUtils.US) {
-                if (this.log.isInfoEnabled()) {
-                    final StringBuffer sb = new StringBuffer("Unhandled control character:");
-                    CharacterUtils.appendChar(sb, CharacterType.NONE, (char) b);
-                    this.log.info(sb.toString());
-                }
-            } else if (b > CharacterUtils.DEL) {
-                // TODO: double byte character.. this is crap
-                final byte[] bytesOfChar = new byte[2];
-                bytesOfChar[0] = b;
-                bytesOfChar[1] = this.channel.getChar();
-                this.tw.writeDoubleByte(bytesOfChar);
-            } else {
-                this.channel.pushChar(b);
-                final int availableChars = this.channel.advanceThroughASCII(this.tw.distanceToLineEnd());
-                this.tw.writeASCII(this.channel.buf, this.channel.offset - availableChars, availableChars);
+            if (this.log.isInfoEnabled()) {
+                final StringBuffer sb = new StringBuffer("Unhandled control character:");
+                CharacterUtils.appendChar(sb, CharacterType.NONE, (char) b);
+                this.log.info(sb.toString());
             }
             break;
         }
     }
 
     /**
-     * Handle esc.
+     * Dispatch an escape sequence.
      *
-     * @param initByte
-     *            the init byte
-     * @throws IOException
-     *             Signals that an I/O exception has occurred.
+     * @param cs
+     *            the escape sequence, holding the intermediate bytes and the final byte
      */
-    private void handleESC(final byte initByte) throws IOException {
-        byte b = initByte;
-        if (b == '[') {
-            this.doControlSequence();
-        } else {
-            final byte[] intermediate = new byte[10];
-            int intCount = 0;
-            while (b >= 0x20 && b <= 0x2F) {
-                intCount++;
-                intermediate[intCount - 1] = b;
-                b = this.channel.getChar();
-            }
-            if (b >= 0x30 && b <= 0x7E) {
-                synchronized (this.tw) {
-                    switch (b) {
-                    case 'M':
-                        // Reverse index ESC M
-                        this.tw.reverseIndex();
-                        break;
-                    case 'D':
-                        // Index ESC D
-                        this.tw.index();
-                        break;
-                    case 'E':
-                        this.tw.nextLine();
-                        break;
-                    case '7':
-                        this.saveCursor();
-                        break;
-                    case '8':
-                        if (intCount > 0 && intermediate[0] == '#') {
-                            this.tw.fillScreen('E');
-                        } else {
-                            this.restoreCursor();
-                        }
-                        break;
-                    default:
-                        if (this.log.isDebugEnabled()) {
-                            this.log.debug("Unhandled escape sequence : "
-                                + this.escapeSequenceToString(intermediate, intCount, b));
-                        }
-                    }
-                }
-            } else {
-                if (this.log.isDebugEnabled()) {
-                    this.log.debug("Malformed escape sequence, pushing back to buffer: "
-                        + this.escapeSequenceToString(intermediate, intCount, b));
-                }
-                // Push backwards
-                for (int i = intCount - 1; i >= 0; i--) {
-                    final byte ib = intermediate[i];
-                    this.channel.pushChar(ib);
+    void escDispatch(final ControlSequence cs) {
+        this.flushPendingChar();
+        final int intCount = cs.getIntermediateCount();
+        synchronized (this.tw) {
+            if (intCount == 0) {
+                switch (cs.getFinalChar()) {
+                case 'M':
+                    // Reverse index ESC M
+                    this.tw.reverseIndex();
+                    return;
+                case 'D':
+                    // Index ESC D
+                    this.tw.index();
+                    return;
+                case 'E':
+                    this.tw.nextLine();
+                    return;
+                case '7':
+                    this.saveCursor();
+                    return;
+                case '8':
+                    this.restoreCursor();
+                    return;
+                case '\\':
+                    // String terminator, the string itself has been consumed by the parser
+                    return;
+                default:
+                    break;
                 }
-                this.channel.pushChar(b);
+            } else if (intCount == 1 && cs.getIntermediate(0) == '#' && cs.getFinalChar() == '8') {
+                this.tw.fillScreen('E');
+                return;
             }
         }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Unhandled escape sequence : " + this.escapeSequenceToString(cs));
+        }
     }
 
     /** The stored cursor. */
@@ -298,48 +448,44 @@ public class Emulator {
     /**
      * Escape sequence to string.
      *
-     * @param intermediate
-     *            the intermediate
-     * @param intCount
-     *            the int count
-     * @param b
-     *            the b
+     * @param cs
+     *            the escape sequence
      * @return the string
      */
-    private String escapeSequenceToString(final byte[] intermediate, final int intCount, final byte b) {
+    private String escapeSequenceToString(final ControlSequence cs) {
 
         final StringBuffer sb = new StringBuffer("ESC ");
 
+        final int intCount = cs.getIntermediateCount();
         for (int i = 0; i < intCount; i++) {
-            final byte ib = intermediate[i];
             sb.append(' ');
-            sb.append((char) ib);
+            sb.append((char) cs.getIntermediate(i));
         }
         sb.append(' ');
-        sb.append((char) b);
+        sb.append((char) cs.getFinalChar());
         return sb.toString();
     }
 
     /**
-     * Do control sequence.
+     * Dispatch a control sequence.
      *
+     * @param cs
+     *            the control sequence
      * @throws IOException
      *             Signals that an I/O exception has occurred.
      */
-    private void doControlSequence() throws IOException {
-        final ControlSequence cs = new ControlSequence(this.channel);
-
+    void csiDispatch(final ControlSequence cs) throws IOException {
+        this.flushPendingChar();
         if (this.log.isDebugEnabled()) {
             final StringBuffer sb = new StringBuffer();
             sb.append("Control sequence\n");
             sb.append("parsed                        :");
             cs.appendToBuffer(sb);
-            sb.append('\n');
-            sb.append("bytes read                    :ESC[");
-            cs.appendActualBytesRead(sb, this.channel);
             this.log.debug(sb.toString());
         }
-        if (cs.pushBackReordered(this.channel)) {
+        final byte marker = cs.getPrivateMarker();
+        if (cs.getIntermediateCount() > 0 || marker != 0 && marker != '?') {
+            this.unhandledControlSequence(cs);
             return;
         }
 
@@ -390,21 +536,28 @@ public class Emulator {
                 this.channel.sendBytes(DEVICE_ATTRIBUTES_RESPONSE);
                 break;
             default:
-                if (this.log.isInfoEnabled()) {
-                    final StringBuffer sb = new StringBuffer();
-                    sb.append("Unhandled Control sequence\n");
-                    sb.append("parsed                        :");
-                    cs.appendToBuffer(sb);
-                    sb.append('\n');
-                    sb.append("bytes read                    :ESC[");
-                    cs.appendActualBytesRead(sb, this.channel);
-                    this.log.info(sb.toString());
-                }
+                this.unhandledControlSequence(cs);
                 break;
             }
         }
     }
 
+    /**
+     * Log an unhandled control sequence.
+     *
+     * @param cs
+     *            the control sequence
+     */
+    private void unhandledControlSequence(final ControlSequence cs) {
+        if (this.log.isInfoEnabled()) {
+            final StringBuffer sb = new StringBuffer();
+            sb.append("Unhandled Control sequence\n");
+            sb.append("parsed                        :");
+            cs.appendToBuffer(sb);
+            this.log.info(sb.toString());
+        }
+    }
+
     /**
      * Sets the modes.
      *
@@ -426,18 +579,18 @@ public class Emulator {
             }
 
             if (mode == null) {
-                if (this.log.isInfoEnabled()) {
-                    this.log.info("Unknown mode " + num);
+                if (this.log.isDebugEnabled()) {
+                    this.log.debug("Unknown mode " + num);
                 }
             } else if (on) {
-                if (this.log.isInfoEnabled()) {
-                    this.log.info("Modes: adding " + mode);
+                if (this.log.isDebugEnabled()) {
+                    this.log.debug("Modes: adding " + mode);
                 }
                 this.tw.setMode(mode);
 
             } else {
-                if (this.log.isInfoEnabled()) {
-                    this.log.info("Modes: removing " + mode);
+                if (this.log.isDebugEnabled()) {
+                    this.log.debug("Modes: removing " + mode);
                 }
                 this.tw.unsetMode(mode);
             }
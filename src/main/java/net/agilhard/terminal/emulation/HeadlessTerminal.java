@@ -0,0 +1,402 @@
+package net.agilhard.terminal.emulation;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An emulated screen without a display, for reading the screens of remote applications from a program.
+ * <p>
+ * The output of the remote side is pushed with {@link #feed(ByteBuffer)}, which parses it on the calling thread and
+ * returns when all bytes are processed, see {@link Emulator#process(byte[], int, int)}. No thread is started.
+ * Replies of the emulator, like the answer to a device attributes request, are written to the stream given to the
+ * constructor.
+ * <p>
+ * The screen is queried with {@link #getChar(int, int)}, {@link #getStyle(int, int)}, {@link #getLine(int)},
+ * {@link #getText()} and the cursor getters, none of them needs AWT types. Columns and rows are counted from 0.
+ * Feeding is not thread-safe, the queries may be called from other threads while a feed is running, each query
+ * locks the screen on its own. No history is kept unless a {@link ScrollBuffer} is set, so a terminal costs little
+ * more than its rows.
+ */
+public final class HeadlessTerminal {
+
+    /**
+     * The display, it only keeps the size.
+     */
+    private static final class HeadlessDisplay implements TerminalDisplay {
+
+        /** The columns. */
+        private int columns;
+
+        /** The rows. */
+        private int rows;
+
+        /** The back buffer. */
+        private BackBuffer backBuffer;
+
+        /**
+         * Instantiates a new headless display.
+         *
+         * @param columns
+         *            the columns
+         * @param rows
+         *            the rows
+         */
+        HeadlessDisplay(final int columns, final int rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.TerminalDisplay#getRowCount()
+         */
+        @Override
+        public int getRowCount() {
+            return this.rows;
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.TerminalDisplay#getColumnCount()
+         */
+        @Override
+        public int getColumnCount() {
+            return this.columns;
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.TerminalDisplay#setCursor(int, int)
+         */
+        @SuppressWarnings("unused")
+        @Override
+        public void setCursor(final int x, final int y) {
+            // .
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.TerminalDisplay#beep()
+         */
+        @Override
+        public void beep() {
+            // .
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.TerminalDisplay#doResize(java.awt.Dimension, net.agilhard.terminal.emulation.RequestOrigin)
+         */
+        @Override
+        public Dimension doResize(final Dimension pendingResize, final RequestOrigin origin) {
+            this.columns = pendingResize.width;
+            this.rows = pendingResize.height;
+            this.backBuffer.doResize(pendingResize, origin);
+            return pendingResize;
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.TerminalDisplay#scrollArea(int, int, int)
+         */
+        @SuppressWarnings("unused")
+        @Override
+        public void scrollArea(final int y, final int h, final int dy) {
+            // .
+        }
+    }
+
+    /** The back buffer. */
+    private final BackBuffer backBuffer;
+
+    /** The terminal writer. */
+    private final TerminalWriter tw;
+
+    /** The emulator. */
+    private final Emulator emulator;
+
+    /** The buffer bytes of a direct buffer are copied to, null until needed. */
+    private byte[] scratch;
+
+    /**
+     * Instantiates a new headless terminal reading UTF-8 and dropping the replies.
+     *
+     * @param columns
+     *            the columns
+     * @param rows
+     *            the rows
+     */
+    public HeadlessTerminal(final int columns, final int rows) {
+        this(columns, rows, StandardCharsets.UTF_8, null);
+    }
+
+    /**
+     * Instantiates a new headless terminal.
+     *
+     * @param columns
+     *            the columns
+     * @param rows
+     *            the rows
+     * @param charset
+     *            the charset of the remote side
+     * @param replies
+     *            the stream the replies to the remote side are written to, null to drop them
+     */
+    public HeadlessTerminal(final int columns, final int rows, final Charset charset, final OutputStream replies) {
+        final StyleState styleState = new StyleState();
+        final HeadlessDisplay display = new HeadlessDisplay(columns, rows);
+        this.backBuffer = new BackBuffer(columns, rows, styleState);
+        display.backBuffer = this.backBuffer;
+        this.tw = new TerminalWriter(display, this.backBuffer, styleState);
+        this.emulator = new Emulator(this.tw, new TtyChannel(bytes -> {
+            if (replies != null) {
+                replies.write(bytes);
+            }
+        }, charset), null);
+    }
+
+    /**
+     * Process the output of the remote side. All remaining bytes of the buffer are consumed.
+     *
+     * @param src
+     *            the bytes
+     * @throws IOException
+     *             Signals that writing a reply failed.
+     */
+    public void feed(final ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            final int length = src.remaining();
+            this.emulator.process(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.position() + length);
+            return;
+        }
+        if (this.scratch == null) {
+            this.scratch = new byte[TtyChannel.DEFAULT_MIN_BUFFER_SIZE];
+        }
+        while (src.hasRemaining()) {
+            final int length = Math.min(src.remaining(), this.scratch.length);
+            src.get(this.scratch, 0, length);
+            this.emulator.process(this.scratch, 0, length);
+        }
+    }
+
+    /**
+     * Process the output of the remote side.
+     *
+     * @param buf
+     *            the buf
+     * @param offset
+     *            the offset
+     * @param length
+     *            the length
+     * @throws IOException
+     *             Signals that writing a reply failed.
+     */
+    public void feed(final byte[] buf, final int offset, final int length) throws IOException {
+        this.emulator.process(buf, offset, length);
+    }
+
+    /**
+     * Resize the screen. The remote side is not told, the caller does that on its connection.
+     *
+     * @param columns
+     *            the columns
+     * @param rows
+     *            the rows
+     */
+    public void resize(final int columns, final int rows) {
+        this.emulator.postResize(new Dimension(columns, rows), RequestOrigin.User);
+    }
+
+    /**
+     * Gets the number of columns.
+     *
+     * @return the columns
+     */
+    public int getColumns() {
+        return this.backBuffer.getWidth();
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return the rows
+     */
+    public int getRows() {
+        return this.backBuffer.getHeight();
+    }
+
+    /**
+     * Gets the column of the cursor. After a character was written to the last column the cursor stays there until
+     * the next character wraps to the next row, the column is then the last column.
+     *
+     * @return the column, 0-based
+     */
+    public int getCursorColumn() {
+        return Math.min(this.tw.getCursorX(), this.backBuffer.getWidth() - 1);
+    }
+
+    /**
+     * Gets the row of the cursor.
+     *
+     * @return the row, 0-based
+     */
+    public int getCursorRow() {
+        return this.tw.getCursorY() - 1;
+    }
+
+    /**
+     * Checks if the alternate screen is shown.
+     *
+     * @return true, if a full screen application switched to the alternate screen
+     */
+    public boolean isAlternateScreen() {
+        return this.backBuffer.isAlternateScreen();
+    }
+
+    /**
+     * Gets the char of a cell.
+     *
+     * @param column
+     *            the column
+     * @param row
+     *            the row
+     * @return the char
+     * @throws IndexOutOfBoundsException
+     *             if the cell is not on the screen
+     */
+    public char getChar(final int column, final int row) {
+        this.backBuffer.lock();
+        try {
+            return this.checkedRow(row, column).chars[column];
+        } finally {
+            this.backBuffer.unlock();
+        }
+    }
+
+    /**
+     * Gets the style of a cell.
+     *
+     * @param column
+     *            the column
+     * @param row
+     *            the row
+     * @return the style
+     * @throws IndexOutOfBoundsException
+     *             if the cell is not on the screen
+     */
+    public CellStyle getStyle(final int column, final int row) {
+        final int styleId;
+        this.backBuffer.lock();
+        try {
+            styleId = this.checkedRow(row, column).styleIds[column];
+        } finally {
+            this.backBuffer.unlock();
+        }
+        return new CellStyle(StyleRegistry.get(styleId));
+    }
+
+    /**
+     * Gets the text of a row without trailing blanks.
+     *
+     * @param row
+     *            the row
+     * @return the text
+     * @throws IndexOutOfBoundsException
+     *             if the row is not on the screen
+     */
+    public String getLine(final int row) {
+        this.backBuffer.lock();
+        try {
+            return this.line(this.checkedRow(row, 0));
+        } finally {
+            this.backBuffer.unlock();
+        }
+    }
+
+    /**
+     * Gets the text of the screen, a line per row without trailing blanks.
+     *
+     * @return the text
+     */
+    public String getText() {
+        this.backBuffer.lock();
+        try {
+            final StringBuilder sb = new StringBuilder();
+            for (int y = 0; y < this.backBuffer.getHeight(); y++) {
+                sb.append(this.line(this.backBuffer.row(y))).append('\n');
+            }
+            return sb.toString();
+        } finally {
+            this.backBuffer.unlock();
+        }
+    }
+
+    /**
+     * Gets a row of the screen, the caller holds the lock.
+     *
+     * @param row
+     *            the row
+     * @param column
+     *            a column which must be on the screen
+     * @return the screen row
+     * @throws IndexOutOfBoundsException
+     *             if the row or the column is not on the screen
+     */
+    private ScreenRow checkedRow(final int row, final int column) {
+        if (row < 0 || row >= this.backBuffer.getHeight()) {
+            throw new IndexOutOfBoundsException("row " + row + " not in 0.." + (this.backBuffer.getHeight() - 1));
+        }
+        if (column < 0 || column >= this.backBuffer.getWidth()) {
+            throw new IndexOutOfBoundsException("column " + column + " not in 0.." + (this.backBuffer.getWidth() - 1));
+        }
+        return this.backBuffer.row(row);
+    }
+
+    /**
+     * Gets the text of a row without trailing blanks.
+     *
+     * @param screenRow
+     *            the screen row
+     * @return the text
+     */
+    private String line(final ScreenRow screenRow) {
+        int end = screenRow.chars.length;
+        while (end > 0 && screenRow.chars[end - 1] == ScreenRow.EMPTY_CHAR) {
+            end--;
+        }
+        return new String(screenRow.chars, 0, end);
+    }
+
+    /**
+     * Sets the scroll buffer the rows scrolled off the screen go to.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer, null to keep no history
+     */
+    public void setScrollBuffer(final ScrollBuffer scrollBuffer) {
+        this.backBuffer.lock();
+        try {
+            this.backBuffer.setScrollBuffer(scrollBuffer);
+        } finally {
+            this.backBuffer.unlock();
+        }
+    }
+
+    /**
+     * Gets the scroll buffer.
+     *
+     * @return the scroll buffer, null if no history is kept
+     */
+    public ScrollBuffer getScrollBuffer() {
+        return this.backBuffer.getScrollBuffer();
+    }
+
+    /**
+     * Gets the back buffer, e.g. for {@link TerminalSearch} or {@link TerminalExporter}.
+     *
+     * @return the back buffer
+     */
+    public BackBuffer getBackBuffer() {
+        return this.backBuffer;
+    }
+
+}
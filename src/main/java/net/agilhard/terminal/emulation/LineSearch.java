@@ -0,0 +1,90 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+
+/**
+ * A lazy iterator over the {@link SearchHit}s of a query in lines, subclasses supply the lines.
+ */
+abstract class LineSearch implements Iterator<SearchHit> {
+
+    /** The matcher. */
+    private final Matcher matcher;
+
+    /** The number of the current line. */
+    private int line;
+
+    /** True, if the matcher is reset to a line. */
+    private boolean inLine;
+
+    /** The next hit, null if not found yet. */
+    private SearchHit next;
+
+    /**
+     * Instantiates a new line search.
+     *
+     * @param query
+     *            the query
+     */
+    LineSearch(final SearchQuery query) {
+        this.matcher = query.getPattern().matcher("");
+    }
+
+    /**
+     * Move to the next line, calling {@link #setLine(int, CharSequence)}.
+     *
+     * @return false, if there are no more lines
+     */
+    protected abstract boolean nextLine();
+
+    /**
+     * Sets the current line.
+     *
+     * @param number
+     *            the number of the line
+     * @param text
+     *            the text
+     */
+    protected void setLine(final int number, final CharSequence text) {
+        this.line = number;
+        this.matcher.reset(text);
+        this.inLine = true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        while (this.next == null) {
+            if (this.inLine && this.matcher.find()) {
+                // empty matches are not hits
+                if (this.matcher.end() > this.matcher.start()) {
+                    this.next = new SearchHit(this.line, this.matcher.start(), this.matcher.end()
+                        - this.matcher.start());
+                }
+            } else {
+                this.inLine = false;
+                if (!this.nextLine()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public SearchHit next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final SearchHit hit = this.next;
+        this.next = null;
+        return hit;
+    }
+
+}
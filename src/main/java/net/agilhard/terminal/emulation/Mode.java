@@ -36,5 +36,14 @@ enum Mode {
     AutoRepeat,
 
     /** The Interlace. */
-    Interlace;
+    Interlace,
+
+    /** The alternate screen, private mode 47. */
+    AlternateScreen,
+
+    /** The alternate screen, cleared when leaving it, private mode 1047. */
+    AlternateScreenClear,
+
+    /** The alternate screen, cleared when entering it and with the cursor saved, private mode 1049. */
+    AlternateScreenSaveCursor;
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A running parallel search of a {@link ScrollBuffer}, see {@link ScrollBuffer#searchParallel(SearchQuery)}.
+ */
+public final class ParallelSearch {
+
+    /** The root task. */
+    private final SectionSearch task;
+
+    /**
+     * Instantiates a new parallel search and submits it.
+     *
+     * @param pool
+     *            the pool
+     * @param task
+     *            the root task
+     */
+    ParallelSearch(final ForkJoinPool pool, final SectionSearch task) {
+        this.task = task;
+        pool.execute(task);
+    }
+
+    /**
+     * Wait for the hits.
+     *
+     * @return the hits, oldest line first
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting
+     * @throws ExecutionException
+     *             if the search failed
+     * @throws java.util.concurrent.CancellationException
+     *             if the search was cancelled
+     */
+    public List<SearchHit> get() throws InterruptedException, ExecutionException {
+        return this.task.get();
+    }
+
+    /**
+     * Cancel the search, for example when the user changes the query.
+     */
+    public void cancel() {
+        this.task.cancelSearch();
+    }
+
+    /**
+     * Checks if the search is done.
+     *
+     * @return true, if done or cancelled
+     */
+    public boolean isDone() {
+        return this.task.isDone();
+    }
+
+    /**
+     * Checks if the search was cancelled.
+     *
+     * @return true, if cancelled
+     */
+    public boolean isCancelled() {
+        return this.task.isCancelled();
+    }
+
+}
@@ -0,0 +1,112 @@
+package net.agilhard.terminal.emulation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the end of a run of printable bytes, i.e. the next C0 control or DEL.
+ * <p>
+ * The scan looks at eight bytes at a time (SWAR, SIMD within a register): every word is read as little endian
+ * <code>long</code> and tested for control bytes with a few arithmetic operations, the lowest flagged byte is the
+ * first control byte. Bytes above 0x7F count as printable, they are text in the channel's charset. The tail of a
+ * chunk which does not fill a word is scanned byte by byte.
+ */
+final class PrintableScanner {
+
+    /** The view of a byte array as little endian longs. */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** The lowest bit of every byte. */
+    private static final long ONES = 0x0101010101010101L;
+
+    /** The highest bit of every byte. */
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /** The first printable byte in every byte. */
+    private static final long SPACES = ONES * 0x20;
+
+    /** DEL in every byte. */
+    private static final long DELS = ONES * 0x7F;
+
+    /**
+     * Private constructor for utility class.
+     */
+    private PrintableScanner() {
+        // .
+    }
+
+    /**
+     * Find the first byte which is not printable.
+     *
+     * @param buf
+     *            the buffer
+     * @param from
+     *            the index to start at
+     * @param to
+     *            the end index, exclusive
+     * @return the index of the first C0 control or DEL, or <code>to</code> if there is none
+     */
+    static int scan(final byte[] buf, final int from, final int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            final long word = (long) LONGS.get(buf, i);
+            // bytes below 0x20, bytes with the high bit set are excluded by ~word. A borrow can only flag bytes
+            // above a byte which is flagged anyway, so the lowest flag is exact.
+            final long controls = word - SPACES & ~word & HIGHS;
+            // bytes equal to DEL
+            final long x = word ^ DELS;
+            final long dels = x - ONES & ~x & HIGHS;
+            final long mask = controls | dels;
+            if (mask != 0) {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        return scanScalar(buf, i, to);
+    }
+
+    /**
+     * Find the first byte which is not printable, one byte at a time.
+     *
+     * @param buf
+     *            the buffer
+     * @param from
+     *            the index to start at
+     * @param to
+     *            the end index, exclusive
+     * @return the index of the first C0 control or DEL, or <code>to</code> if there is none
+     */
+    static int scanScalar(final byte[] buf, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final byte b = buf[i];
+            if (b >= 0 && (b < 0x20 || b == 0x7F)) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Checks if all bytes are below 0x80.
+     *
+     * @param buf
+     *            the buffer
+     * @param from
+     *            the index to start at
+     * @param to
+     *            the end index, exclusive
+     * @return true, if ascii
+     */
+    static boolean isAscii(final byte[] buf, final int from, final int to) {
+        int i = from;
+        long bits = 0;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            bits |= (long) LONGS.get(buf, i);
+        }
+        for (; i < to; i++) {
+            bits |= buf[i];
+        }
+        return (bits & HIGHS) == 0;
+    }
+
+}
@@ -0,0 +1,22 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.IOException;
+
+/**
+ * Receives the bytes an emulator sends to the remote side, like the answer to a device attributes request or the
+ * keys typed by the user. A {@link Tty} writes them to its connection, a {@link HeadlessTerminal} to a stream.
+ */
+@FunctionalInterface
+public interface ReplyWriter {
+
+    /**
+     * Write.
+     *
+     * @param bytes
+     *            the bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void write(byte[] bytes) throws IOException;
+
+}
@@ -0,0 +1,114 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.Arrays;
+
+/**
+ * A row of the {@link BackBuffer}: the characters, the ids of their styles in the {@link StyleRegistry} and the
+ * damaged columns.
+ * <p>
+ * Rows are moved by reference when the screen scrolls, so the damage travels with the content.
+ */
+final class ScreenRow {
+
+    /** The empty char. */
+    static final char EMPTY_CHAR = ' ';
+
+    // CHECKSTYLE:OFF
+    /** The chars. */
+    final char[] chars;
+
+    /** The style ids. */
+    final int[] styleIds;
+
+    /** The first damaged column, the width if the row is clean. */
+    int damageStart;
+
+    /** The column after the last damaged column, 0 if the row is clean. */
+    int damageEnd;
+
+    /** True, if the text ran past the end of the row and continues on the next row. */
+    boolean wrapped;
+    // CHECKSTYLE:ON
+
+    /**
+     * Instantiates a new empty, clean row.
+     *
+     * @param width
+     *            the width
+     */
+    ScreenRow(final int width) {
+        this.chars = new char[width];
+        this.styleIds = new int[width];
+        Arrays.fill(this.chars, EMPTY_CHAR);
+        this.damageStart = width;
+    }
+
+    /**
+     * Clear columns and damage them. Clearing up to the end of the row ends a wrapped line.
+     *
+     * @param fromCol
+     *            the first column
+     * @param toCol
+     *            the column after the last one
+     */
+    void clear(final int fromCol, final int toCol) {
+        Arrays.fill(this.chars, fromCol, toCol, EMPTY_CHAR);
+        Arrays.fill(this.styleIds, fromCol, toCol, StyleRegistry.EMPTY_ID);
+        if (toCol >= this.chars.length) {
+            this.wrapped = false;
+        }
+        this.damage(fromCol, toCol);
+    }
+
+    /**
+     * Gets the length of the content.
+     *
+     * @return the column after the last cell which is not an empty char in the empty style
+     */
+    int getContentLength() {
+        for (int col = this.chars.length - 1; col >= 0; col--) {
+            if (this.chars[col] != EMPTY_CHAR || this.styleIds[col] != StyleRegistry.EMPTY_ID) {
+                return col + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Damage columns.
+     *
+     * @param fromCol
+     *            the first column
+     * @param toCol
+     *            the column after the last one
+     */
+    void damage(final int fromCol, final int toCol) {
+        if (fromCol >= toCol) {
+            return;
+        }
+        if (fromCol < this.damageStart) {
+            this.damageStart = Math.max(fromCol, 0);
+        }
+        if (toCol > this.damageEnd) {
+            this.damageEnd = Math.min(toCol, this.chars.length);
+        }
+    }
+
+    /**
+     * Checks if columns are damaged.
+     *
+     * @return true, if damaged
+     */
+    boolean isDamaged() {
+        return this.damageStart < this.damageEnd;
+    }
+
+    /**
+     * Reset the damage.
+     */
+    void resetDamage() {
+        this.damageStart = this.chars.length;
+        this.damageEnd = 0;
+    }
+
+}
@@ -1,16 +1,40 @@
 package net.agilhard.terminal.emulation;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The Class ScrollBuffer.
+ * <p>
+ * The history is stored in sections of up to 8192 chars. A section is compressed when it is complete and inflated
+ * again on demand when it is pumped, the last few inflated sections are kept in a least recently used cache. The
+ * number of lines and the compressed bytes are capped, the oldest complete sections are evicted when a cap is
+ * exceeded, so the cap is applied at section granularity.
+ * <p>
+ * With a spill file set only the newest complete sections stay on the heap, older ones are written to a
+ * memory-mapped {@link ScrollSpill} and read from there when they are pumped. The space of evicted spilled sections
+ * is reused, so with a line cap the file does not grow without bound.
+ * <p>
+ * With the search index enabled every section gets a {@link TrigramFilter} of the lines starting in it, a
+ * {@link #search(SearchQuery) search} for a literal only inflates the sections which may contain it.
  */
-public class ScrollBuffer implements StyledRunConsumer {
+public class ScrollBuffer implements StyledRunConsumer, Closeable {
 
     /** The Logger. */
     private final Logger log = LoggerFactory.getLogger(ScrollBuffer.class);
@@ -21,187 +45,498 @@ public class ScrollBuffer implements StyledRunConsumer {
     /** The Constant RUN_SIZE. */
     private static final int RUN_SIZE = 128;
 
+    /** The default maximum number of lines. */
+    public static final int DEFAULT_MAX_LINES = 100000;
+
+    /** The default maximum number of compressed bytes. */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** The default number of complete sections kept on the heap when spilling. */
+    public static final int DEFAULT_HEAP_SECTIONS = 64;
+
+    /** The number of inflated complete sections kept. */
+    private static final int INFLATED_SECTIONS = 4;
+
+    /** The flag marking a run starting a line in a packed style id. */
+    private static final int LINE_START = 1 << 31;
+
     /**
      * The Class Section.
      */
     static class Section {
 
-        /** The width. */
-        //private int width;
-
-        /** The buf. */
-        private char[] buf = new char[BUF_SIZE];
+        /** The chars, null while the section is only packed. */
+        private char[] buf;
 
         /** The run starts. */
-        private int[] runStarts = new int[RUN_SIZE];
+        private int[] runStarts;
+
+        /** The style ids of the runs, {@link ScrollBuffer#LINE_START} marks a run starting a line. */
+        private int[] runStyleIds;
+
+        /** The number of runs. */
+        private int runCount;
+
+        /** The number of chars. */
+        private int charCount;
+
+        /** The number of runs starting a line. */
+        private int lineCount;
+
+        /** The index of the run starting each line, null while the section is only packed. */
+        private int[] lineRuns;
+
+        /** The number of the first line started in this section, counted from the creation of the buffer. */
+        private final long firstLine;
 
-        /** The run styles. */
-        private Style[] runStyles = new Style[RUN_SIZE];
+        /** The trigrams of the lines started in this section, null if not indexed. */
+        private final TrigramFilter filter;
 
-        /** The line starts. */
-        private BitSet lineStarts = new BitSet(RUN_SIZE);
+        /** The x of the first run, which continues the previous section unless it starts a line. */
+        private int startX;
+
+        /** The compressed content of a complete section, null if spilled. */
+        private byte[] packed;
+
+        /** The length of the compressed content. */
+        private int packedLength;
+
+        /** The offset of the compressed content in the spill file, -1 if not spilled. */
+        private long spillOffset = -1;
+
+        /** The epoch of the spill file region holding the compressed content. */
+        private int spillEpoch;
 
         /**
-         * Sets the line start.
+         * Instantiates a new section.
          *
-         * @param currentRun
-         *            the new line start
+         * @param firstLine
+         *            the number of the first line started in this section, counted from the creation of the buffer
+         * @param indexed
+         *            true to index the trigrams of the lines
          */
-        public void setLineStart(@SuppressWarnings("unused") final int currentRun) {
-            //.
+        Section(final long firstLine, final boolean indexed) {
+            this.firstLine = firstLine;
+            this.filter = indexed ? new TrigramFilter() : null;
+            this.buf = new char[BUF_SIZE];
+            this.runStarts = new int[RUN_SIZE];
+            this.runStyleIds = new int[RUN_SIZE];
+            this.lineRuns = new int[RUN_SIZE];
+        }
+
+        /**
+         * Instantiates a copy of the counts of a section, without chars and runs.
+         *
+         * @param other
+         *            the section
+         * @param filter
+         *            the filter of the copy
+         */
+        private Section(final Section other, final TrigramFilter filter) {
+            this.firstLine = other.firstLine;
+            this.filter = filter;
+            this.runCount = other.runCount;
+            this.charCount = other.charCount;
+            this.lineCount = other.lineCount;
+            this.startX = other.startX;
+            this.packedLength = other.packedLength;
+        }
+
+        /**
+         * Copy the chars, runs and filter of the current section, the copy does not change when runs are added.
+         *
+         * @return the copy
+         */
+        Section copy() {
+            final Section copy = new Section(this, this.filter == null ? null : this.filter.copy());
+            copy.buf = Arrays.copyOf(this.buf, this.charCount);
+            copy.runStarts = Arrays.copyOf(this.runStarts, this.runCount);
+            copy.runStyleIds = Arrays.copyOf(this.runStyleIds, this.runCount);
+            copy.lineRuns = Arrays.copyOf(this.lineRuns, this.lineCount);
+            return copy;
+        }
+
+        /**
+         * Inflate a complete section into a copy, leaving this section as it is, so other threads can do it at the
+         * same time.
+         *
+         * @param inflater
+         *            the inflater of the calling thread
+         * @param input
+         *            the compressed content
+         * @return the copy
+         * @throws DataFormatException
+         *             if the compressed content is corrupt
+         */
+        Section inflateCopy(final Inflater inflater, final byte[] input) throws DataFormatException {
+            final Section copy = new Section(this, this.filter);
+            copy.unpack(inflater, input);
+            return copy;
+        }
+
+        /**
+         * Gets the number of runs.
+         *
+         * @return the run count
+         */
+        int getRunCount() {
+            return this.runCount;
+        }
+
+        /**
+         * Gets the chars of an inflated section.
+         *
+         * @return the chars
+         */
+        char[] getChars() {
+            return this.buf;
+        }
+
+        /**
+         * Gets the start of a run in the chars.
+         *
+         * @param run
+         *            the run
+         * @return the start
+         */
+        int getRunStart(final int run) {
+            return this.runStarts[run];
+        }
+
+        /**
+         * Gets the end of a run in the chars.
+         *
+         * @param run
+         *            the run
+         * @return the end, exclusive
+         */
+        int getRunEnd(final int run) {
+            return run + 1 < this.runCount ? this.runStarts[run + 1] : this.charCount;
+        }
+
+        /**
+         * Checks if a run starts a line.
+         *
+         * @param run
+         *            the run
+         * @return true, if the run starts a line
+         */
+        boolean isLineStart(final int run) {
+            return (this.runStyleIds[run] & LINE_START) != 0;
         }
 
         /**
          * Put run.
          *
-         * @param currentRun
-         *            the current run
-         * @param bufPos
-         *            the buf pos
-         * @param isNewLine
-         *            the is new line
-         * @param style
-         *            the style
+         * @param x
+         *            the x
+         * @param styleId
+         *            the style id
          * @param otherBuf
          *            the other buf
          * @param start
          *            the start
          * @param len
          *            the len
-         * @return the int
+         * @return false, if the section is full
          */
-        public int putRun(final int currentRun, final int bufPos, final boolean isNewLine, final Style style,
-            final char[] otherBuf, final int start, final int len) {
-            if (bufPos + len >= this.buf.length) {
-                this.complete(currentRun, bufPos);
-                return -1;
+        boolean putRun(final int x, final int styleId, final char[] otherBuf, final int start, final int len) {
+            if (this.charCount + len > this.buf.length) {
+                return false;
+            }
+            if (this.runCount == 0) {
+                this.startX = x;
+            }
+            this.addRun(x == 0, styleId, this.charCount);
+            System.arraycopy(otherBuf, start, this.buf, this.charCount, len);
+            this.charCount += len;
+            return true;
+        }
+
+        /**
+         * Put the cells of a row with one copy, a run is added for each change of the style id.
+         *
+         * @param x
+         *            the x of the first cell in its line
+         * @param chars
+         *            the chars of the row
+         * @param styleIds
+         *            the style ids of the row
+         * @param len
+         *            the number of cells
+         * @return false, if the section is full
+         */
+        boolean putRow(final int x, final char[] chars, final int[] styleIds, final int len) {
+            if (this.charCount + len > this.buf.length) {
+                return false;
+            }
+            if (this.runCount == 0) {
+                this.startX = x;
             }
-            this.ensureArrays(currentRun);
-            this.lineStarts.set(currentRun, isNewLine);
-            this.runStarts[currentRun] = bufPos;
-            this.runStyles[currentRun] = style;
-            System.arraycopy(otherBuf, start, this.buf, bufPos, len);
+            System.arraycopy(chars, 0, this.buf, this.charCount, len);
+            int col = 0;
+            do {
+                // an empty line still needs a run starting it
+                final int styleId = len == 0 ? StyleRegistry.EMPTY_ID : styleIds[col];
+                this.addRun(x + col == 0, styleId, this.charCount + col);
+                col++;
+                while (col < len && styleIds[col] == styleId) {
+                    col++;
+                }
+            } while (col < len);
+            this.charCount += len;
+            return true;
+        }
 
-            return bufPos + len;
+        /**
+         * Add a run.
+         *
+         * @param isNewLine
+         *            true, if the run starts a line
+         * @param styleId
+         *            the style id
+         * @param start
+         *            the index of the first char in buf
+         */
+        private void addRun(final boolean isNewLine, final int styleId, final int start) {
+            this.ensureArrays();
+            if (isNewLine) {
+                this.lineRuns[this.lineCount++] = this.runCount;
+            }
+            this.runStarts[this.runCount] = start;
+            this.runStyleIds[this.runCount] = isNewLine ? styleId | LINE_START : styleId;
+            this.runCount++;
         }
 
         /**
          * Ensure arrays.
-         *
-         * @param currentRun
-         *            the current run
          */
-        private void ensureArrays(final int currentRun) {
-            if (currentRun >= this.runStarts.length) {
+        private void ensureArrays() {
+            if (this.runCount >= this.runStarts.length) {
                 this.runStarts = Util.copyOf(this.runStarts, this.runStarts.length * 2);
-                this.runStyles = Util.copyOf(this.runStyles, this.runStyles.length * 2);
+                this.runStyleIds = Util.copyOf(this.runStyleIds, this.runStyleIds.length * 2);
+                this.lineRuns = Util.copyOf(this.lineRuns, this.lineRuns.length * 2);
             }
         }
 
         /**
-         * Complete.
+         * Gets the size of the uncompressed content.
          *
-         * @param currentRun
-         *            the current run
-         * @param bufPos
-         *            the buf pos
+         * @return the size in bytes
          */
-        public void complete(final int currentRun, final int bufPos) {
-            this.runStarts = Util.copyOf(this.runStarts, currentRun);
-            this.runStyles = Util.copyOf(this.runStyles, currentRun);
-            this.buf = Util.copyOf(this.buf, bufPos);
-            this.lineStarts = this.lineStarts.get(0, currentRun);
+        private int getRawSize() {
+            return this.charCount * 2 + this.runCount * 8;
         }
 
-        // for a complete section
         /**
-         * Pump runs complete.
+         * Complete the section: compress it and drop the chars and runs.
          *
-         * @param firstLine
-         *            the first line
-         * @param startLine
-         *            the start line
-         * @param endLine
-         *            the end line
-         * @param consumer
-         *            the consumer
-         * @return the int
+         * @param deflater
+         *            the deflater
+         * @param scratch
+         *            a scratch buffer of at least {@link #getRawSize()} bytes
+         * @return the scratch buffer, grown if needed
          */
-        public int pumpRunsComplete(final int firstLine, final int startLine, final int endLine,
-            final StyledRunConsumer consumer) {
-            return this.pumpRunsImpl(firstLine, startLine, endLine, consumer, this.buf.length);
+        byte[] pack(final Deflater deflater, final byte[] scratch) {
+            final ByteBuffer raw = ByteBuffer.allocate(this.getRawSize());
+            raw.asCharBuffer().put(this.buf, 0, this.charCount);
+            raw.position(this.charCount * 2);
+            for (int i = 0; i < this.runCount; i++) {
+                // lengths compress better than positions
+                final int end = i + 1 < this.runCount ? this.runStarts[i + 1] : this.charCount;
+                raw.putInt(end - this.runStarts[i]);
+            }
+            for (int i = 0; i < this.runCount; i++) {
+                raw.putInt(this.runStyleIds[i]);
+            }
+            byte[] out = scratch;
+            if (out.length < raw.capacity() + 64) {
+                out = new byte[raw.capacity() + 64];
+            }
+            deflater.reset();
+            deflater.setInput(raw.array());
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            this.packed = Arrays.copyOf(out, length);
+            this.packedLength = length;
+            this.release();
+            return out;
         }
 
-        // for a current section
         /**
-         * Pump runs current.
+         * Inflate the chars and runs of a complete section.
          *
-         * @param firstLine
-         *            the first line
-         * @param startLine
-         *            the start line
-         * @param endLine
-         *            the end line
-         * @param consumer
-         *            the consumer
-         * @param bufPos
-         *            the buf pos
-         * @return the int
+         * @param inflater
+         *            the inflater
+         * @param input
+         *            the compressed content
+         * @throws DataFormatException
+         *             if the compressed content is corrupt
+         */
+        void unpack(final Inflater inflater, final byte[] input) throws DataFormatException {
+            final byte[] raw = new byte[this.getRawSize()];
+            inflater.reset();
+            inflater.setInput(input);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                final int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("truncated section");
+                }
+                length += n;
+            }
+            final ByteBuffer in = ByteBuffer.wrap(raw);
+            final char[] chars = new char[this.charCount];
+            in.asCharBuffer().get(chars);
+            in.position(this.charCount * 2);
+            final int[] starts = new int[this.runCount];
+            int pos = 0;
+            for (int i = 0; i < this.runCount; i++) {
+                starts[i] = pos;
+                pos += in.getInt();
+            }
+            final int[] ids = new int[this.runCount];
+            final int[] lines = new int[this.lineCount];
+            int line = 0;
+            for (int i = 0; i < this.runCount; i++) {
+                ids[i] = in.getInt();
+                if ((ids[i] & LINE_START) != 0 && line < lines.length) {
+                    lines[line++] = i;
+                }
+            }
+            this.buf = chars;
+            this.runStarts = starts;
+            this.runStyleIds = ids;
+            this.lineRuns = lines;
+        }
+
+        /**
+         * Drop the inflated chars and runs of a complete section.
+         */
+        void release() {
+            this.buf = null;
+            this.runStarts = null;
+            this.runStyleIds = null;
+            this.lineRuns = null;
+        }
+
+        /**
+         * Checks if the chars and runs are available.
+         *
+         * @return true, if inflated
+         */
+        boolean isInflated() {
+            return this.buf != null;
+        }
+
+        /**
+         * Gets the compressed content held on the heap.
+         *
+         * @return the compressed content, null for the current section and spilled sections
+         */
+        byte[] getPacked() {
+            return this.packed;
+        }
+
+        /**
+         * Gets the length of the compressed content.
+         *
+         * @return the length in bytes, 0 for the current section
+         */
+        int getPackedLength() {
+            return this.packedLength;
+        }
+
+        /**
+         * Gets the compressed size held on the heap.
+         *
+         * @return the compressed size in bytes, 0 for the current section and spilled sections
+         */
+        int getPackedSize() {
+            return this.packed == null ? 0 : this.packed.length;
+        }
+
+        /**
+         * Gets the offset in the spill file.
+         *
+         * @return the offset, -1 if not spilled
+         */
+        long getSpillOffset() {
+            return this.spillOffset;
+        }
+
+        /**
+         * Gets the epoch of the spill file region holding the compressed content.
+         *
+         * @return the epoch
+         */
+        int getSpillEpoch() {
+            return this.spillEpoch;
+        }
+
+        /**
+         * Drop the compressed content from the heap after it was written to the spill file.
+         *
+         * @param offset
+         *            the offset in the spill file
+         * @param epoch
+         *            the epoch of the spill file region
          */
-        public int pumpRunsCurrent(final int firstLine, final int startLine, final int endLine,
-            final StyledRunConsumer consumer, final int bufPos) {
-            return this.pumpRunsImpl(firstLine, startLine, endLine, consumer, bufPos);
+        void spilled(final long offset, final int epoch) {
+            this.spillOffset = offset;
+            this.spillEpoch = epoch;
+            this.packed = null;
         }
 
         /**
-         * Pump runs impl.
+         * Pump runs.
          *
          * @param firstLine
-         *            the first line
+         *            the line of the first run starting a line
          * @param startLine
-         *            the start line
+         *            the first line to pump
          * @param endLine
-         *            the end line
+         *            the line after the last line to pump
          * @param consumer
          *            the consumer
-         * @param bufferEnd
-         *            the buffer end
-         * @return the int
+         * @return the line of the first run starting a line in the next section
          */
-        private int pumpRunsImpl(final int firstLine, final int startLine, final int endLine,
-            final StyledRunConsumer consumer, final int bufferEnd) {
-            int x = 0;
+        int pumpRuns(final int firstLine, final int startLine, final int endLine,
+            final StyledRunConsumer consumer) {
+            int x = this.startX;
             int y = firstLine - 1;
-            for (int i = 0; i < this.runStarts.length; i++) {
-                if (this.lineStarts.get(i)) {
+            int i = 0;
+            if (startLine > firstLine && this.lineCount > 0) {
+                // jump to the run starting the first line to pump
+                final int line = Math.min(startLine - firstLine, this.lineCount - 1);
+                i = this.lineRuns[line];
+                x = 0;
+                y = firstLine + line - 1;
+            }
+            for (; i < this.runCount; i++) {
+                final int id = this.runStyleIds[i];
+                if ((id & LINE_START) != 0) {
                     x = 0;
                     y++;
                 }
-                if (y < startLine) {
-                    continue;
-                }
-                if (y > endLine) {
+                if (y >= endLine) {
                     break;
                 }
                 final int runStart = this.runStarts[i];
-                int runEnd;
-                boolean last = false;
-                // if we are at the end of the array, or the next runstart is 0 ( ie unfilled),
-                // this is the last run.
-                if (i == this.runStarts.length - 1 || this.runStarts[i + 1] == 0) {
-                    runEnd = bufferEnd;
-                    last = true;
-                } else {
-                    runEnd = this.runStarts[i + 1];
+                final int runEnd = i + 1 < this.runCount ? this.runStarts[i + 1] : this.charCount;
+                if (y >= startLine) {
+                    consumer.consumeRun(x, y, StyleRegistry.get(id & ~LINE_START), this.buf, runStart,
+                        runEnd - runStart);
                 }
-
-                consumer.consumeRun(x, y, this.runStyles[i], this.buf, runStart, runEnd - runStart);
                 x += runEnd - runStart;
-                if (last) {
-                    break;
-                }
             }
-            return y;
+            return firstLine + this.lineCount;
         }
 
         /**
@@ -210,39 +545,351 @@ public class ScrollBuffer implements StyledRunConsumer {
          * @return the line count
          */
         int getLineCount() {
-            return this.lineStarts.cardinality();
+            return this.lineCount;
+        }
+
+        /**
+         * Gets the number of the first line started in this section.
+         *
+         * @return the line number, counted from the creation of the buffer
+         */
+        long getFirstLine() {
+            return this.firstLine;
+        }
+
+        /**
+         * Gets the number of the line after the last line started in this section.
+         *
+         * @return the line number, counted from the creation of the buffer
+         */
+        long getNextLine() {
+            return this.firstLine + this.lineCount;
+        }
+
+        /**
+         * Gets the filter.
+         *
+         * @return the trigrams of the lines started in this section, null if not indexed
+         */
+        TrigramFilter getFilter() {
+            return this.filter;
         }
     }
 
-    /** The complete sections. */
+    /**
+     * The search of the history, section by section from the oldest line.
+     */
+    private final class HistorySearch extends LineSearch implements StyledRunConsumer {
+
+        /** The query. */
+        private final SearchQuery query;
+
+        /** The lines of the current section. */
+        private final List<StringBuilder> lines = new ArrayList<>();
+
+        /** The number of lines of the current section. */
+        private int lineCount;
+
+        /** The index of the next line in lines. */
+        private int lineIndex;
+
+        /** The number of the first line in lines. */
+        private int firstLine;
+
+        /** The next line to fetch, counted from the creation of the buffer. */
+        private long nextFetch = Long.MIN_VALUE;
+
+        /**
+         * Instantiates a new history search.
+         *
+         * @param query
+         *            the query
+         */
+        HistorySearch(final SearchQuery query) {
+            super(query);
+            this.query = query;
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.LineSearch#nextLine()
+         */
+        @Override
+        protected boolean nextLine() {
+            while (this.lineIndex >= this.lineCount) {
+                if (!this.fetch()) {
+                    return false;
+                }
+            }
+            this.setLine(this.firstLine + this.lineIndex, this.lines.get(this.lineIndex));
+            this.lineIndex++;
+            return true;
+        }
+
+        /**
+         * Fetch the lines of the next section which may match.
+         *
+         * @return false, if the history is exhausted
+         */
+        private boolean fetch() {
+            synchronized (ScrollBuffer.this) {
+                final long lineZero = ScrollBuffer.this.currentSection.getNextLine();
+                if (this.nextFetch >= lineZero) {
+                    return false;
+                }
+                final int index = ScrollBuffer.this.findSection(this.nextFetch);
+                final Section s = index < ScrollBuffer.this.completeSections.size()
+                    ? ScrollBuffer.this.completeSections.get(index) : ScrollBuffer.this.currentSection;
+                final long from = Math.max(this.nextFetch, s.getFirstLine());
+                final long to = s.getNextLine();
+                this.nextFetch = to;
+                this.lineCount = 0;
+                this.lineIndex = 0;
+                if (from < to && this.query.mayMatch(s.getFilter())) {
+                    this.firstLine = (int) (from - lineZero);
+                    this.lineCount = (int) (to - from);
+                    while (this.lines.size() < this.lineCount) {
+                        this.lines.add(new StringBuilder());
+                    }
+                    for (int i = 0; i < this.lineCount; i++) {
+                        this.lines.get(i).setLength(0);
+                    }
+                    ScrollBuffer.this.pumpRuns(this.firstLine, this.lineCount, this);
+                }
+                return true;
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.StyledRunConsumer#consumeRun(int, int, net.agilhard.terminal.emulation.Style, char[], int, int)
+         */
+        @SuppressWarnings("unused")
+        @Override
+        public void consumeRun(final int x, final int y, final Style style, final char[] buf, final int start,
+            final int len) {
+            this.lines.get(y - this.firstLine).append(buf, start, len);
+        }
+    }
+
+    /** The complete sections, oldest first. */
     private final List<Section> completeSections = new ArrayList<>();
 
-    /** The current section. */
-    private Section currentSection;
+    /** The inflated complete sections in access order. */
+    private final Map<Section, Section> inflatedSections = new LinkedHashMap<Section, Section>(16, 0.75f, true) {
+
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        /* (non-Javadoc)
+         * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+         */
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Section, Section> eldest) {
+            if (this.size() > INFLATED_SECTIONS) {
+                eldest.getKey().release();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /** The deflater. */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /** The inflater. */
+    private final Inflater inflater = new Inflater();
+
+    /** The scratch buffer for compression. */
+    private byte[] packBuffer = new byte[0];
+
+    /** The maximum number of lines. */
+    private final int maxLines;
 
-    /** The current run. */
-    private int currentRun;
+    /** The maximum number of compressed bytes. */
+    private final long maxBytes;
 
-    /** The buf pos. */
-    private int bufPos;
+    /** The spill file, null if all sections stay on the heap. */
+    private ScrollSpill spill;
+
+    /** The number of complete sections kept on the heap when spilling. */
+    private int heapSections = DEFAULT_HEAP_SECTIONS;
+
+    /** The number of complete sections at the start of completeSections which are spilled. */
+    private int spilledSections;
+
+    /** True, if new sections index their trigrams. */
+    private boolean searchIndexEnabled;
+
+    /** The filter of the section the line being appended started in, null if not indexed. */
+    private TrigramFilter lineFilter;
+
+    /** The chars of the line being appended which are indexed so far, up to 2. */
+    private int gramFill;
+
+    /** The last but one folded char of the line being appended. */
+    private char gram1;
+
+    /** The last folded char of the line being appended. */
+    private char gram2;
+
+    /** The x at which the next row added continues the last line, 0 if it starts a line. */
+    private int continuedX;
+
+    /** The current section. */
+    private Section currentSection;
 
     /** The total lines. */
     private int totalLines;
 
+    /** The compressed bytes of the complete sections on the heap. */
+    private long packedBytes;
+
     /**
-     * Instantiates a new scroll buffer.
+     * Instantiates a new scroll buffer with the default caps.
      */
     public ScrollBuffer() {
-        this.newSection();
+        this(DEFAULT_MAX_LINES, DEFAULT_MAX_BYTES);
     }
 
     /**
-     * New section.
+     * Instantiates a new scroll buffer.
+     *
+     * @param maxLines
+     *            the maximum number of lines
+     * @param maxBytes
+     *            the maximum number of compressed bytes
+     */
+    public ScrollBuffer(final int maxLines, final long maxBytes) {
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        this.currentSection = new Section(0, false);
+    }
+
+    /**
+     * Complete the current section and start a new one.
      */
     private void newSection() {
-        this.currentSection = new Section();
-        this.currentRun = -1;
-        this.bufPos = 0;
+        final Section completed = this.currentSection;
+        this.packBuffer = completed.pack(this.deflater, this.packBuffer);
+        this.completeSections.add(completed);
+        this.packedBytes += completed.getPackedSize();
+        this.currentSection = new Section(completed.getNextLine(), this.searchIndexEnabled);
+        this.evict();
+        this.spill();
+    }
+
+    /**
+     * Spill the oldest complete sections on the heap while there are more than allowed.
+     */
+    private void spill() {
+        while (this.spill != null && this.completeSections.size() - this.spilledSections > this.heapSections) {
+            final Section section = this.completeSections.get(this.spilledSections);
+            try {
+                final long offset = this.spill.append(section.getPacked(), section.getPackedLength());
+                this.packedBytes -= section.getPackedSize();
+                section.spilled(offset, this.spill.getEpoch(offset));
+                this.spilledSections++;
+            } catch (final IOException e) {
+                this.log.error("Can not spill scroll buffer section, keeping the history on the heap", e);
+                this.closeSpill();
+            }
+        }
+    }
+
+    /**
+     * Close the spill file, ignoring errors.
+     */
+    private void closeSpill() {
+        if (this.spill == null) {
+            return;
+        }
+        try {
+            this.spill.close();
+        } catch (final IOException e) {
+            this.log.error("Can not close scroll buffer spill file", e);
+        }
+        this.spill = null;
+        // the spilled sections are gone with the file
+        this.evictSections(this.spilledSections);
+    }
+
+    /**
+     * Evict the oldest complete sections while a cap is exceeded.
+     */
+    private void evict() {
+        while (!this.completeSections.isEmpty()
+            && (this.totalLines > this.maxLines || this.packedBytes > this.maxBytes)) {
+            this.evictSections(1);
+        }
+    }
+
+    /**
+     * Evict the oldest complete sections.
+     *
+     * @param count
+     *            the number of sections
+     */
+    private void evictSections(final int count) {
+        for (int i = 0; i < count; i++) {
+            final Section oldest = this.completeSections.remove(0);
+            this.inflatedSections.remove(oldest);
+            this.totalLines -= oldest.getLineCount();
+            this.packedBytes -= oldest.getPackedSize();
+            if (this.spilledSections > 0) {
+                this.spilledSections--;
+                if (this.spill != null) {
+                    this.spill.release(oldest.getSpillOffset(), oldest.getPackedLength());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a section ready to pump, inflating it if needed.
+     *
+     * @param section
+     *            the section
+     * @return the section, null if it can not be inflated
+     */
+    private Section inflated(final Section section) {
+        if (section == this.currentSection) {
+            return section;
+        }
+        if (!section.isInflated()) {
+            try {
+                final byte[] input = section.getSpillOffset() < 0 ? section.getPacked()
+                    : this.spill.read(section.getSpillOffset(), section.getPackedLength(), section.getSpillEpoch());
+                section.unpack(this.inflater, input);
+            } catch (final DataFormatException e) {
+                this.log.error("Can not inflate scroll buffer section", e);
+                return null;
+            }
+        }
+        this.inflatedSections.put(section, section);
+        return section;
+    }
+
+    /**
+     * Pump the runs of a section.
+     *
+     * @param section
+     *            the section
+     * @param firstLine
+     *            the line of the first run starting a line
+     * @param startLine
+     *            the first line to pump
+     * @param endLine
+     *            the line after the last line to pump
+     * @param consumer
+     *            the consumer
+     * @return the line of the first run starting a line in the next section
+     */
+    private int pumpSection(final Section section, final int firstLine, final int startLine, final int endLine,
+        final StyledRunConsumer consumer) {
+        final Section s = this.inflated(section);
+        if (s == null) {
+            return firstLine + section.getLineCount();
+        }
+        return s.pumpRuns(firstLine, startLine, endLine, consumer);
     }
 
     /**
@@ -265,12 +912,12 @@ public class ScrollBuffer implements StyledRunConsumer {
                 sb.append(buf, start, len);
             }
         };
-        int currentLine = -this.totalLines;
+        final int firstLine = -this.totalLines;
+        int currentLine = firstLine;
         for (final Section s : this.completeSections) {
-            currentLine = s.pumpRunsComplete(currentLine, currentLine, 0, consumer);
+            currentLine = this.pumpSection(s, currentLine, firstLine, 0, consumer);
         }
-
-        this.currentSection.pumpRunsCurrent(currentLine, currentLine, 0, consumer, this.bufPos);
+        this.pumpSection(this.currentSection, currentLine, firstLine, 0, consumer);
 
         return sb.toString();
     }
@@ -282,33 +929,253 @@ public class ScrollBuffer implements StyledRunConsumer {
     @Override
     public synchronized void consumeRun(final int x, final int y, final Style style, final char[] buf, final int start,
         final int len) {
-        this.currentRun++;
-        final boolean isNewLine = x == 0;
-        if (isNewLine) {
+        final int styleId = style == null ? StyleRegistry.EMPTY_ID : StyleRegistry.idOf(style);
+        // rows added later start a line of their own
+        this.continuedX = 0;
+        if (x == 0) {
             this.totalLines++;
         }
-        this.bufPos = this.currentSection.putRun(this.currentRun, this.bufPos, isNewLine, style, buf, start, len);
-        if (this.bufPos < 0) {
-
-            this.completeSections.add(this.currentSection);
+        if (!this.currentSection.putRun(x, styleId, buf, start, len)) {
             this.newSection();
-            this.currentRun++;
-            this.bufPos = this.currentSection.putRun(this.currentRun, this.bufPos, isNewLine, style, buf, start, len);
-            if (this.bufPos < 0) {
+            if (!this.currentSection.putRun(x, styleId, buf, start, len)) {
                 this.log.error("Can not put run in new section, bailing out");
+                return;
+            }
+        }
+        if (x == 0) {
+            this.lineFilter = this.currentSection.getFilter();
+            this.gramFill = 0;
+        }
+        if (this.lineFilter != null) {
+            this.index(buf, start, len);
+        }
+    }
+
+    /**
+     * Append rows scrolled off the top of a screen, oldest first. The cells of a row are copied with one array copy
+     * and its runs are found from the style ids, trailing blanks are dropped. A row marked as wrapped continues on the
+     * next row, even if that comes with a later call, and both form one line.
+     *
+     * @param rows
+     *            the rows, not kept
+     * @param count
+     *            the number of rows
+     */
+    synchronized void addRows(final ScreenRow[] rows, final int count) {
+        for (int i = 0; i < count; i++) {
+            final ScreenRow row = rows[i];
+            final int len = row.wrapped ? row.chars.length : row.getContentLength();
+            final int x = this.continuedX;
+            if (x == 0) {
+                this.totalLines++;
+            }
+            if (!this.currentSection.putRow(x, row.chars, row.styleIds, len)) {
+                this.newSection();
+                if (!this.currentSection.putRow(x, row.chars, row.styleIds, len)) {
+                    this.log.error("Can not put row in new section, bailing out");
+                    this.continuedX = 0;
+                    return;
+                }
+            }
+            if (x == 0) {
+                this.lineFilter = this.currentSection.getFilter();
+                this.gramFill = 0;
+            }
+            if (this.lineFilter != null) {
+                this.index(row.chars, 0, len);
+            }
+            this.continuedX = row.wrapped ? x + len : 0;
+        }
+    }
+
+    /**
+     * Add the trigrams of a run to the filter of the section its line started in.
+     *
+     * @param buf
+     *            the buf
+     * @param start
+     *            the start
+     * @param len
+     *            the len
+     */
+    private void index(final char[] buf, final int start, final int len) {
+        char c1 = this.gram1;
+        char c2 = this.gram2;
+        int fill = this.gramFill;
+        for (int i = start; i < start + len; i++) {
+            final char c3 = TrigramFilter.fold(buf[i]);
+            if (fill >= 2) {
+                this.lineFilter.add(TrigramFilter.bit(c1, c2, c3));
+            } else {
+                fill++;
             }
+            c1 = c2;
+            c2 = c3;
+        }
+        this.gram1 = c1;
+        this.gram2 = c2;
+        this.gramFill = fill;
+    }
+
+    /**
+     * Enable or disable the search index for sections started from now on, or for the current section while it is
+     * empty. The index costs 512 bytes of heap per
+     * section, also for spilled sections.
+     *
+     * @param enabled
+     *            true to index
+     */
+    public synchronized void setSearchIndexEnabled(final boolean enabled) {
+        this.searchIndexEnabled = enabled;
+        if (this.currentSection.runCount == 0) {
+            this.currentSection = new Section(this.currentSection.getFirstLine(), enabled);
         }
     }
 
+    /**
+     * Search the history. The hits are found lazily, oldest line first, each step locks the scroll buffer only
+     * while it reads one section.
+     *
+     * @param query
+     *            the query
+     * @return the hits
+     */
+    public Iterator<SearchHit> search(final SearchQuery query) {
+        return new HistorySearch(query);
+    }
+
     /**
      * Gets the line count.
      *
      * @return the line count
      */
-    public int getLineCount() {
+    public synchronized int getLineCount() {
         return this.totalLines;
     }
 
+    /**
+     * Checks if the last line continues on the screen, because the last row added was wrapped.
+     *
+     * @return true, if the first row of the screen belongs to the last line
+     */
+    synchronized boolean isLineContinued() {
+        return this.continuedX != 0;
+    }
+
+    /**
+     * Gets the number of line 0, the first line of the screen.
+     *
+     * @return the number of the line after the last history line, counted from the creation of the buffer
+     */
+    synchronized long getLineZero() {
+        return this.currentSection.getNextLine();
+    }
+
+    /**
+     * Gets the number of compressed bytes held.
+     *
+     * @return the compressed bytes of the complete sections
+     */
+    public synchronized long getPackedBytes() {
+        return this.packedBytes;
+    }
+
+    /**
+     * Gets the number of bytes of the sections in the spill file.
+     *
+     * @return the compressed bytes of the spilled sections, 0 if there is no spill file
+     */
+    public synchronized long getSpilledBytes() {
+        return this.spill == null ? 0 : this.spill.getSize();
+    }
+
+    /**
+     * Move older complete sections to a memory-mapped file, which is created or truncated and deleted on
+     * {@link #close()}. Sections already complete are spilled at once, the history in a previous spill file is
+     * dropped.
+     *
+     * @param file
+     *            the file, one per scroll buffer
+     * @param keptSections
+     *            the number of newest complete sections kept on the heap
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public synchronized void setSpillFile(final Path file, final int keptSections) throws IOException {
+        this.closeSpill();
+        this.spill = new ScrollSpill(file);
+        this.heapSections = Math.max(keptSections, 0);
+        this.spill();
+    }
+
+    /**
+     * Move older complete sections to a memory-mapped temporary file, see {@link #setSpillFile(Path, int)}.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public synchronized void setSpillFile() throws IOException {
+        final Path file = Files.createTempFile("scrollback", ".bin");
+        file.toFile().deleteOnExit();
+        this.setSpillFile(file, DEFAULT_HEAP_SECTIONS);
+    }
+
+    /**
+     * Close the spill file, the spilled history is dropped.
+     */
+    @Override
+    public synchronized void close() {
+        this.closeSpill();
+    }
+
+    /**
+     * Search the history in parallel. The complete sections are read without the lock and shared out to the tasks
+     * of a fork join pool, the current section is copied under the lock when the search starts. So are the trigram
+     * filters which may still change: the filter of the current section and the one of the section the current line
+     * started in, which gets the trigrams of the rest of the line.
+     *
+     * @param query
+     *            the query
+     * @param pool
+     *            the pool
+     * @return the running search
+     */
+    public ParallelSearch searchParallel(final SearchQuery query, final ForkJoinPool pool) {
+        final Section[] sections;
+        final byte[][] inputs;
+        final TrigramFilter[] filters;
+        final long lineZero;
+        final ScrollSpill spillFile;
+        synchronized (this) {
+            final int count = this.completeSections.size();
+            sections = new Section[count + 1];
+            inputs = new byte[count + 1][];
+            filters = new TrigramFilter[count + 1];
+            for (int i = 0; i < count; i++) {
+                sections[i] = this.completeSections.get(i);
+                inputs[i] = sections[i].getPacked();
+                final TrigramFilter filter = sections[i].getFilter();
+                filters[i] = filter != null && filter == this.lineFilter ? filter.copy() : filter;
+            }
+            sections[count] = this.currentSection.copy();
+            filters[count] = sections[count].getFilter();
+            lineZero = this.currentSection.getNextLine();
+            spillFile = this.spill;
+        }
+        return new ParallelSearch(pool, new SectionSearch(query, sections, inputs, filters, spillFile, lineZero));
+    }
+
+    /**
+     * Search the history in parallel in the common pool, see {@link #searchParallel(SearchQuery, ForkJoinPool)}.
+     *
+     * @param query
+     *            the query
+     * @return the running search
+     */
+    public ParallelSearch searchParallel(final SearchQuery query) {
+        return this.searchParallel(query, ForkJoinPool.commonPool());
+    }
+
     /**
      * Pump runs.
      *
@@ -319,36 +1186,49 @@ public class ScrollBuffer implements StyledRunConsumer {
      * @param consumer
      *            the consumer
      */
-    public void pumpRuns(final int firstLine, final int height, final StyledRunConsumer consumer) {
+    public synchronized void pumpRuns(final int firstLine, final int height, final StyledRunConsumer consumer) {
         // firstLine is negative . 0 is the first line in the back buffer.
-        // Find start Section
-        int currentLine = -this.currentSection.getLineCount();
+        final long lineZero = this.currentSection.getNextLine();
         final int lastLine = firstLine + height;
-        if (currentLine > firstLine) {
-            //Need to look at past sections
-            //Look back through them to find the one that contains our first line.
-            int i = this.completeSections.size() - 1;
-            for (; i >= 0; i--) {
-                currentLine -= this.completeSections.get(i).getLineCount();
-                if (currentLine <= firstLine) {
-                    // This section contains our first line.
-                    break;
-                }
-            }
-            i = Math.max(i, 0); // if they requested before this scroll buffer return as much as possible.
-            for (; i < this.completeSections.size(); i++) {
-                final int startLine = Math.max(firstLine, currentLine);
-                final Section s = this.completeSections.get(i);
-                currentLine = s.pumpRunsComplete(currentLine, startLine, lastLine, consumer);
-                if (currentLine >= lastLine) {
-                    break;
-                }
+        int i = this.findSection(lineZero + firstLine);
+        for (; i < this.completeSections.size(); i++) {
+            final Section s = this.completeSections.get(i);
+            final int currentLine = (int) (s.getFirstLine() - lineZero);
+            if (currentLine > lastLine) {
+                // not even the continued line of the section is in view
+                return;
             }
+            this.pumpSection(s, currentLine, firstLine, lastLine, consumer);
         }
-        if (currentLine < lastLine) {
-            this.currentSection.pumpRunsCurrent(currentLine, Math.max(firstLine, currentLine), lastLine, consumer,
-                this.bufPos);
+        final int currentLine = (int) (this.currentSection.getFirstLine() - lineZero);
+        if (currentLine <= lastLine) {
+            this.pumpSection(this.currentSection, currentLine, firstLine, lastLine, consumer);
+        }
+    }
+
+    /**
+     * Find the complete section containing the start of a line by binary search.
+     *
+     * @param line
+     *            the line number, counted from the creation of the buffer
+     * @return the index of the last complete section starting at or before the line, 0 if the line is older than the
+     *         history and the number of complete sections if the line is in the current section
+     */
+    private int findSection(final long line) {
+        if (line >= this.currentSection.getFirstLine()) {
+            return this.completeSections.size();
+        }
+        int low = 0;
+        int high = this.completeSections.size() - 1;
+        while (low < high) {
+            final int mid = low + high + 1 >>> 1;
+            if (this.completeSections.get(mid).getFirstLine() <= line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
         }
+        return low;
     }
 
 }
@@ -0,0 +1,320 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory-mapped file holding the compressed sections a {@link ScrollBuffer} moved off the heap.
+ * <p>
+ * The file is mapped in regions of 16 MiB, a section never spans two regions. Records are addressed by their offset
+ * in the file, the caller keeps offset, length and the epoch of the region and releases a record when its section is
+ * evicted. The regions form a ring in the order they were written: when the current region is full, the oldest one
+ * is reused once all its records are released, else a new region is mapped at the end of the file. As sections are
+ * evicted oldest first, a capped history keeps the file at a steady size.
+ * <p>
+ * A reused region gets a new epoch, a search reading a released record without the lock of the scroll buffer
+ * notices the epoch change and gets no data. The regions are unmapped and the file is deleted when it is closed.
+ */
+final class ScrollSpill implements Closeable {
+
+    /**
+     * A mapped region.
+     */
+    private static final class Region {
+
+        /** The mapped bytes. */
+        private final MappedByteBuffer buffer;
+
+        /** The number of times the region was reused, changed before it is overwritten. */
+        private volatile int epoch;
+
+        /** The number of records not released, guarded by the lock of the scroll buffer. */
+        private int live;
+
+        /**
+         * Instantiates a new region.
+         *
+         * @param buffer
+         *            the mapped bytes
+         */
+        Region(final MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /** The Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(ScrollSpill.class);
+
+    /** The bits of an offset addressing a byte in a region. */
+    private static final int REGION_BITS = 24;
+
+    /** The size of a region. */
+    private static final int REGION_SIZE = 1 << REGION_BITS;
+
+    /** The unsafe instance unmapping buffers, null if not available. */
+    private static final Object UNSAFE;
+
+    /** The method Unsafe.invokeCleaner(ByteBuffer), null if not available. */
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            unsafe = field.get(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Can not unmap buffers, the spill file is unmapped by the garbage collector", e);
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = unsafe == null ? null : invokeCleaner;
+    }
+
+    /** The file. */
+    private final Path file;
+
+    /** The channel. */
+    private final FileChannel channel;
+
+    /** The mapped regions by their index in the file, read by parallel searches while new regions are added. */
+    private final List<Region> regions = new CopyOnWriteArrayList<>();
+
+    /** The indexes of the filled regions, oldest first, the current region is not included. */
+    private final ArrayDeque<Integer> ring = new ArrayDeque<>();
+
+    /** The read lock is held while a record is copied, the write lock to unmap the regions. */
+    private final ReadWriteLock mapLock = new ReentrantReadWriteLock();
+
+    /** The index of the region written, -1 before the first record. */
+    private int current = -1;
+
+    /** The position of the next record in the current region. */
+    private int position;
+
+    /** The number of bytes of the records not released. */
+    private long size;
+
+    /** True, if the file is closed, guarded by the write lock of {@link #mapLock}. */
+    private boolean closed;
+
+    /**
+     * Instantiates a new spill file, an existing file is truncated.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    ScrollSpill(final Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param data
+     *            the data
+     * @param length
+     *            the number of bytes to append
+     * @return the offset of the record
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    long append(final byte[] data, final int length) throws IOException {
+        if (length > REGION_SIZE) {
+            throw new IOException("record too large: " + length);
+        }
+        if (this.current < 0 || this.position + length > REGION_SIZE) {
+            // continue in the next region, the rest of the current one stays unused
+            this.nextRegion();
+        }
+        final Region region = this.regions.get(this.current);
+        final ByteBuffer buffer = region.buffer.duplicate();
+        buffer.position(this.position);
+        buffer.put(data, 0, length);
+        region.live++;
+        final long offset = ((long) this.current << REGION_BITS) + this.position;
+        this.position += length;
+        this.size += length;
+        return offset;
+    }
+
+    /**
+     * Move the write cursor to the oldest region if all its records are released, else to a new region.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void nextRegion() throws IOException {
+        if (this.current >= 0) {
+            this.ring.addLast(this.current);
+        }
+        final Integer oldest = this.ring.peekFirst();
+        if (oldest != null && this.regions.get(oldest).live == 0) {
+            this.ring.removeFirst();
+            final Region region = this.regions.get(oldest);
+            region.epoch++;
+            // readers check the epoch after copying, it must change before the bytes do
+            VarHandle.storeStoreFence();
+            this.current = oldest;
+        } else {
+            final long start = (long) this.regions.size() << REGION_BITS;
+            this.regions.add(new Region(this.channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE)));
+            this.current = this.regions.size() - 1;
+        }
+        this.position = 0;
+    }
+
+    /**
+     * Gets the epoch of the region of a record, to be passed to {@link #read(long, int, int)}.
+     *
+     * @param offset
+     *            the offset of the record
+     * @return the epoch
+     */
+    int getEpoch(final long offset) {
+        return this.regions.get((int) (offset >>> REGION_BITS)).epoch;
+    }
+
+    /**
+     * Release a record, its space is reused when all records of its region are released.
+     *
+     * @param offset
+     *            the offset of the record
+     * @param length
+     *            the length of the record
+     */
+    void release(final long offset, final int length) {
+        this.regions.get((int) (offset >>> REGION_BITS)).live--;
+        this.size -= length;
+    }
+
+    /**
+     * Read a record.
+     *
+     * @param offset
+     *            the offset
+     * @param length
+     *            the length
+     * @param epoch
+     *            the epoch of the region when the record was appended
+     * @return the data, null if the record was released and its region reused
+     * @throws IllegalStateException
+     *             if the file is closed
+     */
+    byte[] read(final long offset, final int length, final int epoch) {
+        final Lock lock = this.mapLock.readLock();
+        lock.lock();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("scroll buffer spill file is closed");
+            }
+            final Region region = this.regions.get((int) (offset >>> REGION_BITS));
+            if (region.epoch != epoch) {
+                return null;
+            }
+            final ByteBuffer buffer = region.buffer.duplicate();
+            buffer.position((int) (offset & REGION_SIZE - 1));
+            final byte[] data = new byte[length];
+            buffer.get(data);
+            VarHandle.loadLoadFence();
+            return region.epoch == epoch ? data : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of bytes of the records not released.
+     *
+     * @return the size
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of mapped regions.
+     *
+     * @return the number of regions
+     */
+    int getRegionCount() {
+        return this.regions.size();
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        final Lock lock = this.mapLock.writeLock();
+        lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (final Region region : this.regions) {
+                unmap(region.buffer);
+            }
+            this.regions.clear();
+            this.ring.clear();
+        } finally {
+            lock.unlock();
+        }
+        this.channel.close();
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (final IOException e) {
+            // a mapping may still be alive on some platforms
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Can not delete scroll buffer spill file " + this.file, e);
+            }
+        }
+    }
+
+    /**
+     * Unmap a buffer at once instead of when it is collected, no reader may use it afterwards.
+     *
+     * @param buffer
+     *            the buffer
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Can not unmap scroll buffer spill region", e);
+            }
+        }
+    }
+
+}
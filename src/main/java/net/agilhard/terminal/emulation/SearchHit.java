@@ -0,0 +1,72 @@
+package net.agilhard.terminal.emulation;
+
+/**
+ * A match of a {@link SearchQuery}.
+ * <p>
+ * Lines are numbered like in {@link ScrollBuffer#pumpRuns(int, int, StyledRunConsumer)}: 0 is the first line of the
+ * screen, history lines are negative. The number is taken when the hit is found, it moves when more lines scroll
+ * into the history.
+ */
+public final class SearchHit {
+
+    /** The line. */
+    private final int line;
+
+    /** The column. */
+    private final int column;
+
+    /** The length. */
+    private final int length;
+
+    /**
+     * Instantiates a new search hit.
+     *
+     * @param line
+     *            the line
+     * @param column
+     *            the column
+     * @param length
+     *            the length
+     */
+    SearchHit(final int line, final int column, final int length) {
+        this.line = line;
+        this.column = column;
+        this.length = length;
+    }
+
+    /**
+     * Gets the line.
+     *
+     * @return the line
+     */
+    public int getLine() {
+        return this.line;
+    }
+
+    /**
+     * Gets the column.
+     *
+     * @return the column
+     */
+    public int getColumn() {
+        return this.column;
+    }
+
+    /**
+     * Gets the length.
+     *
+     * @return the length in chars
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SearchHit [line=" + this.line + ", column=" + this.column + ", length=" + this.length + "]";
+    }
+
+}
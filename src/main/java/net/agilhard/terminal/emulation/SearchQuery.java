@@ -0,0 +1,77 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.regex.Pattern;
+
+/**
+ * A literal or regular expression query for {@link TerminalSearch}.
+ * <p>
+ * A literal query also knows its trigrams, so sections of a {@link ScrollBuffer} whose {@link TrigramFilter} lacks
+ * one of them are skipped without inflating them. Matches never span lines.
+ */
+public final class SearchQuery {
+
+    /** The pattern. */
+    private final Pattern pattern;
+
+    /** The filter bits of the trigrams a matching line must contain. */
+    private final int[] trigramBits;
+
+    /**
+     * Instantiates a new search query.
+     *
+     * @param pattern
+     *            the pattern
+     * @param trigramBits
+     *            the trigram bits
+     */
+    private SearchQuery(final Pattern pattern, final int[] trigramBits) {
+        this.pattern = pattern;
+        this.trigramBits = trigramBits;
+    }
+
+    /**
+     * Create a query for a literal text.
+     *
+     * @param text
+     *            the text
+     * @param ignoreCase
+     *            true to ignore case
+     * @return the search query
+     */
+    public static SearchQuery literal(final String text, final boolean ignoreCase) {
+        final int flags = Pattern.LITERAL | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+        return new SearchQuery(Pattern.compile(text, flags), TrigramFilter.bits(text));
+    }
+
+    /**
+     * Create a query for a regular expression, which is matched against every line.
+     *
+     * @param pattern
+     *            the pattern
+     * @return the search query
+     */
+    public static SearchQuery regex(final Pattern pattern) {
+        return new SearchQuery(pattern, new int[0]);
+    }
+
+    /**
+     * Gets the pattern.
+     *
+     * @return the pattern
+     */
+    public Pattern getPattern() {
+        return this.pattern;
+    }
+
+    /**
+     * Checks if a filter may hold a matching line.
+     *
+     * @param filter
+     *            the filter, null if the text was not indexed
+     * @return false, if no line can match
+     */
+    boolean mayMatch(final TrigramFilter filter) {
+        return filter == null || filter.mightContain(this.trigramBits);
+    }
+
+}
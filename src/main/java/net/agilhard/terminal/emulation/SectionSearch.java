@@ -0,0 +1,256 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fork join task searching a range of {@link ScrollBuffer} sections.
+ * <p>
+ * A range is split in halves down to {@link #LEAF_SECTIONS} sections. A leaf inflates its sections into private
+ * copies, so leaves run without a lock, and searches the lines starting in its range, reading on into the following
+ * sections for the end of its last line. The hits of the halves are concatenated, so they stay in line order.
+ */
+final class SectionSearch extends RecursiveTask<List<SearchHit>> {
+
+    /** The Constant serialVersionUID. */
+    private static final long serialVersionUID = 4035213860541529402L;
+
+    /** The Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(SectionSearch.class);
+
+    /** The maximum number of sections searched by one task. */
+    private static final int LEAF_SECTIONS = 16;
+
+    /** The query. */
+    private final SearchQuery query;
+
+    /** The sections, the last one a copy of the current section. */
+    private final ScrollBuffer.Section[] sections;
+
+    /** The compressed content of the sections on the heap when the search started. */
+    private final byte[][] inputs;
+
+    /** The trigram filters of the sections, none of them changes during the search. */
+    private final TrigramFilter[] filters;
+
+    /** The spill file, null if there is none. */
+    private final ScrollSpill spill;
+
+    /** The number of line 0, counted from the creation of the buffer. */
+    private final long lineZero;
+
+    /** The first section of the range. */
+    private final int from;
+
+    /** The section after the range. */
+    private final int to;
+
+    /** True, if the search was cancelled, shared by all tasks of a search. */
+    private final AtomicBoolean cancelled;
+
+    /**
+     * Instantiates a new search of all sections.
+     *
+     * @param query
+     *            the query
+     * @param sections
+     *            the sections
+     * @param inputs
+     *            the compressed content of the sections on the heap
+     * @param filters
+     *            the trigram filters of the sections, copies of those which may change
+     * @param spill
+     *            the spill file
+     * @param lineZero
+     *            the number of line 0
+     */
+    SectionSearch(final SearchQuery query, final ScrollBuffer.Section[] sections, final byte[][] inputs,
+        final TrigramFilter[] filters, final ScrollSpill spill, final long lineZero) {
+        this(query, sections, inputs, filters, spill, lineZero, 0, sections.length, new AtomicBoolean());
+    }
+
+    /**
+     * Instantiates a new section search.
+     *
+     * @param query
+     *            the query
+     * @param sections
+     *            the sections
+     * @param inputs
+     *            the compressed content of the sections on the heap
+     * @param filters
+     *            the trigram filters of the sections, copies of those which may change
+     * @param spill
+     *            the spill file
+     * @param lineZero
+     *            the number of line 0
+     * @param from
+     *            the first section
+     * @param to
+     *            the section after the range
+     * @param cancelled
+     *            the cancelled flag
+     */
+    private SectionSearch(final SearchQuery query, final ScrollBuffer.Section[] sections, final byte[][] inputs,
+        final TrigramFilter[] filters, final ScrollSpill spill, final long lineZero, final int from, final int to,
+        final AtomicBoolean cancelled) {
+        this.query = query;
+        this.sections = sections;
+        this.inputs = inputs;
+        this.filters = filters;
+        this.spill = spill;
+        this.lineZero = lineZero;
+        this.from = from;
+        this.to = to;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Cancel all tasks of the search, running leaves stop at the next section.
+     */
+    void cancelSearch() {
+        this.cancelled.set(true);
+        this.cancel(false);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.RecursiveTask#compute()
+     */
+    @Override
+    protected List<SearchHit> compute() {
+        if (this.to - this.from <= LEAF_SECTIONS) {
+            return this.searchLeaf();
+        }
+        final int mid = this.from + this.to >>> 1;
+        final SectionSearch left = new SectionSearch(this.query, this.sections, this.inputs, this.filters,
+            this.spill, this.lineZero, this.from, mid, this.cancelled);
+        final SectionSearch right = new SectionSearch(this.query, this.sections, this.inputs, this.filters,
+            this.spill, this.lineZero, mid, this.to, this.cancelled);
+        left.fork();
+        final List<SearchHit> rightHits = right.compute();
+        final List<SearchHit> hits = left.join();
+        if (hits.isEmpty()) {
+            return rightHits;
+        }
+        hits.addAll(rightHits);
+        return hits;
+    }
+
+    /**
+     * Search the lines starting in the range.
+     *
+     * @return the hits
+     */
+    private List<SearchHit> searchLeaf() {
+        final List<SearchHit> hits = new ArrayList<>();
+        final Matcher matcher = this.query.getPattern().matcher("");
+        final StringBuilder line = new StringBuilder();
+        final Inflater inflater = new Inflater();
+        try {
+            boolean pending = false;
+            long lineNumber = 0;
+            for (int i = this.from; i < this.sections.length; i++) {
+                final boolean inRange = i < this.to;
+                if (!inRange && !pending || this.cancelled.get()) {
+                    break;
+                }
+                final ScrollBuffer.Section meta = this.sections[i];
+                final boolean wanted = inRange && meta.getLineCount() > 0 && this.query.mayMatch(this.filters[i]);
+                if (!wanted && !pending) {
+                    continue;
+                }
+                final ScrollBuffer.Section s = this.inflate(i, inflater);
+                if (s == null) {
+                    pending = false;
+                    continue;
+                }
+                long next = meta.getFirstLine();
+                final char[] chars = s.getChars();
+                for (int run = 0; run < s.getRunCount(); run++) {
+                    if (s.isLineStart(run)) {
+                        if (pending) {
+                            this.match(matcher, line, lineNumber, hits);
+                            pending = false;
+                        }
+                        if (!wanted) {
+                            break;
+                        }
+                        lineNumber = next++;
+                        line.setLength(0);
+                        pending = true;
+                    }
+                    if (pending) {
+                        line.append(chars, s.getRunStart(run), s.getRunEnd(run) - s.getRunStart(run));
+                    }
+                }
+            }
+            if (pending) {
+                this.match(matcher, line, lineNumber, hits);
+            }
+        } finally {
+            inflater.end();
+        }
+        return hits;
+    }
+
+    /**
+     * Inflate a section.
+     *
+     * @param index
+     *            the index of the section
+     * @param inflater
+     *            the inflater
+     * @return the inflated copy, null if the section can not be read
+     */
+    private ScrollBuffer.Section inflate(final int index, final Inflater inflater) {
+        final ScrollBuffer.Section section = this.sections[index];
+        if (index == this.sections.length - 1) {
+            // the copy of the current section
+            return section;
+        }
+        try {
+            final byte[] input = this.inputs[index] != null ? this.inputs[index]
+                : this.spill.read(section.getSpillOffset(), section.getPackedLength(), section.getSpillEpoch());
+            // null if the section was evicted meanwhile and its space reused
+            return input == null ? null : section.inflateCopy(inflater, input);
+        } catch (final DataFormatException | RuntimeException e) {
+            // the spill file may have been closed meanwhile
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Can not read scroll buffer section for search", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Add the hits in a line.
+     *
+     * @param matcher
+     *            the matcher
+     * @param line
+     *            the line
+     * @param lineNumber
+     *            the number of the line, counted from the creation of the buffer
+     * @param hits
+     *            the hits
+     */
+    private void match(final Matcher matcher, final CharSequence line, final long lineNumber,
+        final List<SearchHit> hits) {
+        matcher.reset(line);
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start()) {
+                hits.add(new SearchHit((int) (lineNumber - this.lineZero), matcher.start(), matcher.end()
+                    - matcher.start()));
+            }
+        }
+    }
+
+}
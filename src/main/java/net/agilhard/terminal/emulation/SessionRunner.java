@@ -0,0 +1,233 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the blocking loops of sessions, like the read loop of an {@link Emulator} or a SFTP command loop, each on a
+ * thread of its own. On a JVM with virtual threads the threads are virtual, so an idle session costs no platform
+ * thread, else platform threads are used. Virtual threads are created by reflection, the code runs on older JVMs.
+ * <p>
+ * Closing the runner interrupts the running loops and closes what they block on, e.g. the tty of an emulator, since
+ * a blocked read is not ended by an interrupt.
+ */
+public final class SessionRunner implements Closeable {
+
+    /** The Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(SessionRunner.class);
+
+    /** The method Thread.ofVirtual(), null if there are no virtual threads. */
+    private static final Method OF_VIRTUAL;
+
+    /** The method Thread.Builder.name(String). */
+    private static final Method BUILDER_NAME;
+
+    /** The method Thread.Builder.unstarted(Runnable). */
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+        } catch (final ReflectiveOperationException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No virtual threads, sessions run on platform threads");
+            }
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    /** The running threads and what to close to end them, empty if an interrupt ends the task. */
+    private final Map<Thread, Optional<Closeable>> running = new ConcurrentHashMap<>();
+
+    /** The lock guarding {@link #closed} and the registration of new threads. */
+    private final Object lock = new Object();
+
+    /** True, if the runner is closed. */
+    private boolean closed;
+
+    /**
+     * Checks if sessions run on virtual threads.
+     *
+     * @return true, if the JVM has virtual threads
+     */
+    public static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a thread, virtual if the JVM has virtual threads. The thread is not started.
+     *
+     * @param name
+     *            the name
+     * @param task
+     *            the task
+     * @return the thread
+     */
+    public static Thread newThread(final String name, final Runnable task) {
+        if (OF_VIRTUAL != null) {
+            try {
+                final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                // e.g. a JVM with virtual threads as disabled preview feature
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Can not create virtual thread, using a platform thread", e);
+                }
+            }
+        }
+        return new Thread(task, name);
+    }
+
+    /**
+     * Start a task.
+     *
+     * @param name
+     *            the name of the thread
+     * @param task
+     *            the task
+     * @return the thread
+     * @throws IllegalStateException
+     *             if the runner is closed
+     */
+    public Thread start(final String name, final Runnable task) {
+        return this.start(name, task, null);
+    }
+
+    /**
+     * Start a task which ends when a resource is closed.
+     *
+     * @param name
+     *            the name of the thread
+     * @param task
+     *            the task
+     * @param resource
+     *            the resource closed by {@link #close()}, null if an interrupt ends the task
+     * @return the thread
+     * @throws IllegalStateException
+     *             if the runner is closed, the resource is closed then and the task does not run
+     */
+    public Thread start(final String name, final Runnable task, final Closeable resource) {
+        final Thread thread = newThread(name, () -> {
+            try {
+                task.run();
+            } finally {
+                this.running.remove(Thread.currentThread());
+            }
+        });
+        synchronized (this.lock) {
+            if (!this.closed) {
+                // registered under the lock, so close() either sees the thread or this start fails
+                this.running.put(thread, Optional.ofNullable(resource));
+                thread.start();
+                return thread;
+            }
+        }
+        if (resource != null) {
+            closeResource(name, resource);
+        }
+        throw new IllegalStateException("session runner is closed");
+    }
+
+    /**
+     * Start the read loop of an emulator. Closing the runner closes the tty of the emulator.
+     *
+     * @param emulator
+     *            the emulator
+     * @return the thread
+     * @throws IllegalStateException
+     *             if the runner is closed, the tty is closed then
+     */
+    public Thread startEmulator(final Emulator emulator) {
+        final Tty tty = emulator.getChannel().getTty();
+        if (tty == null) {
+            throw new IllegalArgumentException("emulator has no tty to read from");
+        }
+        return this.start("Terminal " + tty.getName(), emulator::start, tty::close);
+    }
+
+    /**
+     * Gets the number of running tasks.
+     *
+     * @return the number of running tasks
+     */
+    public int getRunningCount() {
+        return this.running.size();
+    }
+
+    /**
+     * Wait until all tasks have ended.
+     *
+     * @param timeout
+     *            the timeout
+     * @param unit
+     *            the unit of the timeout
+     * @return true, if all tasks have ended
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (final Thread thread : this.running.keySet()) {
+            final long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(thread, left);
+        }
+        return this.running.isEmpty();
+    }
+
+    /**
+     * Interrupt the running tasks and close their resources. No tasks can be started afterwards, the tasks may still
+     * be running when this returns, see {@link #awaitTermination(long, TimeUnit)}.
+     */
+    @Override
+    public void close() {
+        final List<Map.Entry<Thread, Optional<Closeable>>> entries;
+        synchronized (this.lock) {
+            this.closed = true;
+            entries = new ArrayList<>(this.running.entrySet());
+        }
+        for (final Map.Entry<Thread, Optional<Closeable>> entry : entries) {
+            entry.getKey().interrupt();
+            entry.getValue().ifPresent(resource -> closeResource(entry.getKey().getName(), resource));
+        }
+    }
+
+    /**
+     * Close the resource of a session, a failure is logged.
+     *
+     * @param name
+     *            the name of the thread of the session
+     * @param resource
+     *            the resource
+     */
+    private static void closeResource(final String name, final Closeable resource) {
+        try {
+            resource.close();
+        } catch (final IOException e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Can not close session of " + name, e);
+            }
+        }
+    }
+
+}
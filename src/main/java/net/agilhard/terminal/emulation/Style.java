@@ -4,17 +4,18 @@
 package net.agilhard.terminal.emulation;
 
 import java.awt.Color;
-import java.lang.ref.WeakReference;
-import java.util.EnumSet;
-import java.util.WeakHashMap;
 
 /**
  * The Class Style.
+ * <p>
+ * A style is an immutable value: two colors and the options as a bit mask. A color is packed into an
+ * <code>int</code>, the type in the upper byte and the index or RGB value below, see {@link #rgb(int)} and
+ * {@link #indexed(int)}. All styles are canonical instances of the {@link StyleRegistry}. A changed style is
+ * derived with the <code>with</code> methods, which look the result up by its packed values and remember recent
+ * transitions, so repeated attribute changes do not allocate. The AWT colors and the transition cache are only
+ * created when they are used.
  */
-public class Style implements Cloneable {
-
-    /** The count. */
-    private static int count = 1;
+public final class Style {
 
     /**
      * The Class ChosenColor.
@@ -41,6 +42,33 @@ public class Style implements Cloneable {
     /** The Constant BACKGROUND. */
     static final ChosenColor BACKGROUND = new ChosenColor(Color.WHITE);
 
+    /** The packed default color, {@link #FOREGROUND} or {@link #BACKGROUND}. */
+    static final int COLOR_DEFAULT = 0;
+
+    /** The type of a packed indexed color. */
+    static final int COLOR_INDEXED = 1 << 24;
+
+    /** The type of a packed RGB color. */
+    static final int COLOR_RGB = 2 << 24;
+
+    /** The bits of the type of a packed color. */
+    private static final int COLOR_TYPE_MASK = 0xFF << 24;
+
+    /** The number of cached transitions per color. */
+    private static final int CACHE_SIZE = 8;
+
+    /** The number of cached transitions per option and value. */
+    private static final int OPTION_SLOTS = 16;
+
+    /** The index of the first cached foreground transition. */
+    private static final int FOREGROUND_SLOTS = OPTION_SLOTS;
+
+    /** The index of the first cached background transition. */
+    private static final int BACKGROUND_SLOTS = FOREGROUND_SLOTS + CACHE_SIZE;
+
+    /** The number of cached transitions. */
+    private static final int TRANSITIONS = BACKGROUND_SLOTS + CACHE_SIZE;
+
     /**
      * The Enum Option.
      */
@@ -62,14 +90,26 @@ public class Style implements Cloneable {
         UNDERSCORE,
 
         /** The hidden. */
-        HIDDEN
+        HIDDEN,
+
+        /** The italic. */
+        ITALIC,
+
+        /** The crossed out. */
+        CROSSED_OUT;
+
+        /**
+         * Gets the bit of the option.
+         *
+         * @return the bit
+         */
+        int bit() {
+            return 1 << this.ordinal();
+        }
     }
 
     /** The Constant EMPTY. */
-    public static final Style EMPTY = new Style();
-
-    /** The Constant styles. */
-    private static WeakHashMap<Style, WeakReference<Style>> styles = new WeakHashMap<>();
+    public static final Style EMPTY = new Style(COLOR_DEFAULT, COLOR_DEFAULT, 0, StyleRegistry.EMPTY_ID);
 
     /**
      * Gets the canonical style.
@@ -79,83 +119,114 @@ public class Style implements Cloneable {
      * @return the canonical style
      */
     public static Style getCanonicalStyle(final Style currentStyle) {
-        final WeakReference<Style> canonRef = styles.get(currentStyle);
-        if (canonRef != null) {
-            final Style canonStyle = canonRef.get();
-            if (canonStyle != null) {
-                return canonStyle;
-            }
-        }
-        styles.put(currentStyle, new WeakReference<>(currentStyle));
-        return currentStyle;
+        return StyleRegistry.intern(currentStyle);
     }
 
-    /** The foreground. */
-    private Color foreground;
+    /** The packed foreground. */
+    private final int fg;
+
+    /** The packed background. */
+    private final int bg;
+
+    /** The options as bit mask. */
+    private final int options;
 
-    /** The background. */
-    private Color background;
+    /** The id in the {@link StyleRegistry}. */
+    private final int id;
 
-    /** The options. */
-    private final EnumSet<Option> options;
+    /** The foreground, null until it is needed. */
+    private volatile Color foreground;
 
-    /** The number. */
-    private final int number;
+    /** The background, null until it is needed. */
+    private volatile Color background;
 
     /**
-     * Instantiates a new style.
+     * The recent styles derived by changing an option, indexed by option and value, then by changing the
+     * foreground and the background, null until the first transition.
      */
-    Style() {
-        this.number = count++;
-        this.foreground = FOREGROUND;
-        this.background = BACKGROUND;
-        this.options = EnumSet.noneOf(Option.class);
-    }
+    private volatile Style[] transitions;
 
     /**
-     * Instantiates a new style.
+     * Instantiates a new style, only the {@link StyleRegistry} creates styles.
      *
-     * @param foreground
-     *            the foreground
-     * @param background
-     *            the background
+     * @param fg
+     *            the packed foreground
+     * @param bg
+     *            the packed background
      * @param options
      *            the options
+     * @param id
+     *            the id in the {@link StyleRegistry}
      */
-    Style(final Color foreground, final Color background, final EnumSet<Option> options) {
-        this.number = count++;
-        this.foreground = foreground;
-        this.background = background;
-        this.options = options.clone();
+    Style(final int fg, final int bg, final int options, final int id) {
+        this.fg = fg;
+        this.bg = bg;
+        this.options = options;
+        this.id = id;
     }
 
     /**
-     * Sets the foreground.
+     * Pack an RGB color.
      *
-     * @param foreground
-     *            the new foreground
+     * @param rgb
+     *            the red, green and blue bytes
+     * @return the packed color
      */
-    void setForeground(final Color foreground) {
-        this.foreground = foreground;
+    static int rgb(final int rgb) {
+        return COLOR_RGB | rgb & 0xFFFFFF;
     }
 
     /**
-     * Gets the foreground.
+     * Pack an indexed color.
      *
-     * @return the foreground
+     * @param index
+     *            the index in the {@link ColorPalette}
+     * @return the packed color
      */
-    public Color getForeground() {
-        return this.foreground;
+    static int indexed(final int index) {
+        return COLOR_INDEXED | index & 0xFF;
     }
 
     /**
-     * Sets the background.
+     * Pack a color, the default colors are packed as {@link #COLOR_DEFAULT}.
      *
-     * @param background
-     *            the new background
+     * @param color
+     *            the color
+     * @return the packed color
      */
-    void setBackground(final Color background) {
-        this.background = background;
+    static int pack(final Color color) {
+        if (color == null || color instanceof ChosenColor) {
+            return COLOR_DEFAULT;
+        }
+        return rgb(color.getRGB());
+    }
+
+    /**
+     * Unpack a color which is not the default.
+     *
+     * @param packed
+     *            the packed color
+     * @return the color
+     */
+    private static Color toColor(final int packed) {
+        if ((packed & COLOR_TYPE_MASK) == COLOR_INDEXED) {
+            return ColorPalette.getColor(packed & 0xFF);
+        }
+        return new Color(packed & 0xFFFFFF);
+    }
+
+    /**
+     * Gets the foreground.
+     *
+     * @return the foreground
+     */
+    public Color getForeground() {
+        Color color = this.foreground;
+        if (color == null) {
+            color = this.fg == COLOR_DEFAULT ? FOREGROUND : toColor(this.fg);
+            this.foreground = color;
+        }
+        return color;
     }
 
     /**
@@ -164,42 +235,57 @@ public class Style implements Cloneable {
      * @return the background
      */
     public Color getBackground() {
-        return this.background;
+        Color color = this.background;
+        if (color == null) {
+            color = this.bg == COLOR_DEFAULT ? BACKGROUND : toColor(this.bg);
+            this.background = color;
+        }
+        return color;
     }
 
     /**
-     * Sets the option.
+     * Gets the packed foreground.
      *
-     * @param opt
-     *            the opt
-     * @param val
-     *            the val
+     * @return the packed foreground
      */
-    public void setOption(final Option opt, final boolean val) {
-        if (val) {
-            this.options.add(opt);
-        } else {
-            this.options.remove(opt);
-        }
+    int getPackedForeground() {
+        return this.fg;
     }
 
-    /* (non-Javadoc)
-     * @see java.lang.Object#clone()
+    /**
+     * Gets the packed background.
+     *
+     * @return the packed background
      */
-    @Override
-    // CHECKSTYLE:OFF
-    public Style clone() {
-        return new Style(this.getForeground(), this.getBackground(), this.options);
+    int getPackedBackground() {
+        return this.bg;
+    }
+
+    /**
+     * Gets the options as bit mask.
+     *
+     * @return the options
+     */
+    int getOptions() {
+        return this.options;
     }
-    // CHECKSTYLE:ON
 
     /**
      * Gets the number.
      *
-     * @return the number
+     * @return the number, the id in the style registry
      */
     public int getNumber() {
-        return this.number;
+        return this.id;
+    }
+
+    /**
+     * Gets the id in the {@link StyleRegistry}.
+     *
+     * @return the id
+     */
+    int getId() {
+        return this.id;
     }
 
     /**
@@ -210,7 +296,101 @@ public class Style implements Cloneable {
      * @return true, if successful
      */
     public boolean hasOption(final Option bold) {
-        return this.options.contains(bold);
+        return (this.options & bold.bit()) != 0;
+    }
+
+    /**
+     * Derive a style with an option set or cleared.
+     *
+     * @param opt
+     *            the option
+     * @param val
+     *            the value
+     * @return the canonical style
+     */
+    public Style withOption(final Option opt, final boolean val) {
+        final int newOptions = val ? this.options | opt.bit() : this.options & ~opt.bit();
+        return this.derive(opt.ordinal() << 1 | (val ? 1 : 0), this.fg, this.bg, newOptions);
+    }
+
+    /**
+     * Derive a style with another foreground.
+     *
+     * @param packed
+     *            the packed foreground
+     * @return the canonical style
+     */
+    Style withForeground(final int packed) {
+        return this.derive(FOREGROUND_SLOTS + slot(packed), packed, this.bg, this.options);
+    }
+
+    /**
+     * Derive a style with another background.
+     *
+     * @param packed
+     *            the packed background
+     * @return the canonical style
+     */
+    Style withBackground(final int packed) {
+        return this.derive(BACKGROUND_SLOTS + slot(packed), this.fg, packed, this.options);
+    }
+
+    /**
+     * Gets the cache slot of a packed color.
+     *
+     * @param packed
+     *            the packed color
+     * @return the slot, 0 to {@link #CACHE_SIZE} - 1
+     */
+    private static int slot(final int packed) {
+        return (packed ^ packed >>> 8 ^ packed >>> 16 ^ packed >>> 24) & CACHE_SIZE - 1;
+    }
+
+    /**
+     * Derive a style with other values.
+     *
+     * @param slot
+     *            the slot in the transition cache
+     * @param newFg
+     *            the packed foreground
+     * @param newBg
+     *            the packed background
+     * @param newOptions
+     *            the options
+     * @return the canonical style
+     */
+    private Style derive(final int slot, final int newFg, final int newBg, final int newOptions) {
+        if (this.matches(newFg, newBg, newOptions)) {
+            return this;
+        }
+        Style[] cache = this.transitions;
+        if (cache == null) {
+            cache = new Style[TRANSITIONS];
+            this.transitions = cache;
+        }
+        // the cache may be written by other threads, the entry is verified instead of trusted
+        final Style cached = cache[slot];
+        if (cached != null && cached.matches(newFg, newBg, newOptions)) {
+            return cached;
+        }
+        final Style derived = StyleRegistry.intern(newFg, newBg, newOptions);
+        cache[slot] = derived;
+        return derived;
+    }
+
+    /**
+     * Checks if this style has the given values.
+     *
+     * @param otherFg
+     *            the packed foreground
+     * @param otherBg
+     *            the packed background
+     * @param otherOptions
+     *            the options
+     * @return true, if equal
+     */
+    boolean matches(final int otherFg, final int otherBg, final int otherOptions) {
+        return this.fg == otherFg && this.bg == otherBg && this.options == otherOptions;
     }
 
     /* (non-Javadoc)
@@ -220,9 +400,9 @@ public class Style implements Cloneable {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + (this.background == null ? 0 : this.background.hashCode());
-        result = prime * result + (this.foreground == null ? 0 : this.foreground.hashCode());
-        result = prime * result + (this.options == null ? 0 : this.options.hashCode());
+        result = prime * result + this.bg;
+        result = prime * result + this.fg;
+        result = prime * result + this.options;
         return result;
     }
 
@@ -241,28 +421,7 @@ public class Style implements Cloneable {
             return false;
         }
         final Style other = (Style) obj;
-        if (this.background == null) {
-            if (other.background != null) {
-                return false;
-            }
-        } else if (!this.background.equals(other.background)) {
-            return false;
-        }
-        if (this.foreground == null) {
-            if (other.foreground != null) {
-                return false;
-            }
-        } else if (!this.foreground.equals(other.foreground)) {
-            return false;
-        }
-        if (this.options == null) {
-            if (other.options != null) {
-                return false;
-            }
-        } else if (!this.options.equals(other.options)) {
-            return false;
-        }
-        return true;
+        return this.matches(other.fg, other.bg, other.options);
     }
 
     /**
@@ -271,7 +430,7 @@ public class Style implements Cloneable {
      * @return the background for run
      */
     public Color getBackgroundForRun() {
-        return this.options.contains(Option.REVERSE) ? this.foreground : this.background;
+        return this.hasOption(Option.REVERSE) ? this.getForeground() : this.getBackground();
     }
 
     /**
@@ -280,14 +439,7 @@ public class Style implements Cloneable {
      * @return the foreground for run
      */
     public Color getForegroundForRun() {
-        return this.options.contains(Option.REVERSE) ? this.background : this.foreground;
-    }
-
-    /**
-     * Clear options.
-     */
-    public void clearOptions() {
-        this.options.clear();
+        return this.hasOption(Option.REVERSE) ? this.getBackground() : this.getForeground();
     }
 
-}
\ No newline at end of file
+}
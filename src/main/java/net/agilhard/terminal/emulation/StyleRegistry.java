@@ -0,0 +1,267 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interns styles and maps them to small integer ids, so cells can store an <code>int</code> instead of a
+ * {@link Style} reference.
+ * <p>
+ * The registry is shared by all emulators. A style is looked up by its packed colors and options in an open
+ * addressing hash table without a lock and without creating a key, so looking up a known style does not allocate.
+ * A new style is created and registered under a lock, the table is replaced by a larger copy when it gets half full.
+ * Styles are found by id in pages. Equal styles get the same canonical instance and id, {@link Style#EMPTY} has
+ * id 0.
+ * <p>
+ * Ids are stored in rows and compressed history, so styles are never removed. Instead the registry holds at most
+ * {@link #MAX_STYLES} styles: once it is full, a new style is replaced by the nearest registered one, with its RGB
+ * colors reduced to the {@link ColorPalette}, else with the default colors, else by {@link Style#EMPTY}. Interning
+ * never fails, so an application drawing many true colors cannot make the registry grow without bound.
+ */
+final class StyleRegistry {
+
+    /** The id of {@link Style#EMPTY}. */
+    static final int EMPTY_ID = 0;
+
+    /** The maximum number of styles. */
+    static final int MAX_STYLES = 1 << 18;
+
+    /** The bits of an id addressing the slot in a page. */
+    private static final int PAGE_BITS = 10;
+
+    /** The number of styles in a page. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /** The maximum number of pages. */
+    private static final int MAX_PAGES = MAX_STYLES >>> PAGE_BITS;
+
+    /** The initial number of slots in the hash table. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(StyleRegistry.class);
+
+    /** The lock for registering styles. */
+    private static final Object LOCK = new Object();
+
+    /** The pages of styles by id. */
+    private static final AtomicReferenceArray<AtomicReferenceArray<Style>> PAGES = new AtomicReferenceArray<>(
+        MAX_PAGES);
+
+    /** The hash table of the canonical styles, probed linearly, replaced when it grows. */
+    private static volatile AtomicReferenceArray<Style> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    /** The number of styles, guarded by {@link #LOCK}. */
+    private static int count;
+
+    /** True, if the registry ran full, guarded by {@link #LOCK}. */
+    private static boolean full;
+
+    static {
+        synchronized (LOCK) {
+            register(Style.EMPTY);
+        }
+    }
+
+    /**
+     * Private constructor for utility class.
+     */
+    private StyleRegistry() {
+        // .
+    }
+
+    /**
+     * Gets the canonical style with the given colors and options, registering it on first use.
+     *
+     * @param fg
+     *            the packed foreground
+     * @param bg
+     *            the packed background
+     * @param options
+     *            the options
+     * @return the canonical style
+     */
+    static Style intern(final int fg, final int bg, final int options) {
+        final Style known = lookup(fg, bg, options);
+        if (known != null) {
+            return known;
+        }
+        synchronized (LOCK) {
+            // another thread may have registered it meanwhile
+            final Style registered = lookup(fg, bg, options);
+            if (registered != null) {
+                return registered;
+            }
+            if (count >= MAX_STYLES) {
+                return fallback(fg, bg, options);
+            }
+            final Style style = new Style(fg, bg, options, count);
+            register(style);
+            return style;
+        }
+    }
+
+    /**
+     * Gets the canonical style equal to a style.
+     *
+     * @param style
+     *            the style
+     * @return the canonical style
+     */
+    static Style intern(final Style style) {
+        return intern(style.getPackedForeground(), style.getPackedBackground(), style.getOptions());
+    }
+
+    /**
+     * Find a registered style.
+     *
+     * @param fg
+     *            the packed foreground
+     * @param bg
+     *            the packed background
+     * @param options
+     *            the options
+     * @return the style, null if it is not registered
+     */
+    private static Style lookup(final int fg, final int bg, final int options) {
+        final AtomicReferenceArray<Style> slots = table;
+        final int mask = slots.length() - 1;
+        for (int i = hash(fg, bg, options) & mask;; i = i + 1 & mask) {
+            final Style style = slots.get(i);
+            if (style == null || style.matches(fg, bg, options)) {
+                return style;
+            }
+        }
+    }
+
+    /**
+     * Register a new style under its id, the caller holds {@link #LOCK}.
+     *
+     * @param style
+     *            the style
+     */
+    private static void register(final Style style) {
+        final int id = style.getId();
+        AtomicReferenceArray<Style> page = PAGES.get(id >>> PAGE_BITS);
+        if (page == null) {
+            page = new AtomicReferenceArray<>(PAGE_SIZE);
+            PAGES.set(id >>> PAGE_BITS, page);
+        }
+        // the style is found by id before it can be found in the table
+        page.set(id & PAGE_SIZE - 1, style);
+        count++;
+        AtomicReferenceArray<Style> slots = table;
+        if (count << 1 > slots.length()) {
+            final AtomicReferenceArray<Style> larger = new AtomicReferenceArray<>(slots.length() << 1);
+            for (int i = 0; i < slots.length(); i++) {
+                final Style other = slots.get(i);
+                if (other != null) {
+                    insert(larger, other);
+                }
+            }
+            insert(larger, style);
+            table = larger;
+        } else {
+            insert(slots, style);
+        }
+    }
+
+    /**
+     * Insert a style into a hash table.
+     *
+     * @param slots
+     *            the hash table
+     * @param style
+     *            the style
+     */
+    private static void insert(final AtomicReferenceArray<Style> slots, final Style style) {
+        final int mask = slots.length() - 1;
+        int i = hash(style.getPackedForeground(), style.getPackedBackground(), style.getOptions()) & mask;
+        while (slots.get(i) != null) {
+            i = i + 1 & mask;
+        }
+        slots.set(i, style);
+    }
+
+    /**
+     * Hash packed colors and options.
+     *
+     * @param fg
+     *            the packed foreground
+     * @param bg
+     *            the packed background
+     * @param options
+     *            the options
+     * @return the hash
+     */
+    private static int hash(final int fg, final int bg, final int options) {
+        final int h = fg * 0x9E3779B1 ^ bg * 0x85EBCA6B ^ options * 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Gets the registered style nearest to a style which can not be registered any more, the caller holds
+     * {@link #LOCK}.
+     *
+     * @param fg
+     *            the packed foreground
+     * @param bg
+     *            the packed background
+     * @param options
+     *            the options
+     * @return the canonical style
+     */
+    private static Style fallback(final int fg, final int bg, final int options) {
+        if (!full) {
+            full = true;
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Style registry is full with " + MAX_STYLES + " styles, new styles are approximated");
+            }
+        }
+        final Style reduced = lookup(reduce(fg), reduce(bg), options);
+        if (reduced != null) {
+            return reduced;
+        }
+        final Style plain = lookup(Style.COLOR_DEFAULT, Style.COLOR_DEFAULT, options);
+        return plain == null ? Style.EMPTY : plain;
+    }
+
+    /**
+     * Reduce a packed RGB color to the nearest indexed color.
+     *
+     * @param packed
+     *            the packed color
+     * @return the packed color, indexed or default
+     */
+    private static int reduce(final int packed) {
+        if ((packed & ~0xFFFFFF) != Style.COLOR_RGB) {
+            return packed;
+        }
+        return Style.indexed(ColorPalette.nearest(packed & 0xFFFFFF));
+    }
+
+    /**
+     * Gets the id of a style.
+     *
+     * @param style
+     *            the style
+     * @return the id
+     */
+    static int idOf(final Style style) {
+        return style.getId();
+    }
+
+    /**
+     * Gets the style of an id.
+     *
+     * @param id
+     *            the id
+     * @return the style
+     */
+    static Style get(final int id) {
+        return PAGES.get(id >>> PAGE_BITS).get(id & PAGE_SIZE - 1);
+    }
+
+}
@@ -7,14 +7,16 @@ import java.awt.Color;
  */
 public class StyleState {
 
-    /** The current style. */
+    /** The current style, always a canonical style of the {@link StyleRegistry}. */
     private Style currentStyle = Style.EMPTY;
 
     /**
-     * Roll style.
+     * Gets the id of the current style in the {@link StyleRegistry}.
+     *
+     * @return the id
      */
-    private void rollStyle() {
-        this.currentStyle = this.currentStyle.clone();
+    int getCurrentId() {
+        return this.currentStyle.getId();
     }
 
     /**
@@ -23,7 +25,7 @@ public class StyleState {
      * @return the current
      */
     public Style getCurrent() {
-        return Style.getCanonicalStyle(this.currentStyle);
+        return this.currentStyle;
     }
 
     /**
@@ -33,8 +35,7 @@ public class StyleState {
      *            the new current background
      */
     public void setCurrentBackground(final Color bg) {
-        this.rollStyle();
-        this.currentStyle.setBackground(bg);
+        this.currentStyle = this.currentStyle.withBackground(Style.pack(bg));
     }
 
     /**
@@ -44,8 +45,29 @@ public class StyleState {
      *            the new current foreground
      */
     public void setCurrentForeground(final Color fg) {
-        this.rollStyle();
-        this.currentStyle.setForeground(fg);
+        this.currentStyle = this.currentStyle.withForeground(Style.pack(fg));
+    }
+
+    /**
+     * Sets the current background.
+     *
+     * @param packed
+     *            the new current background as packed color, see {@link Style#indexed(int)} and
+     *            {@link Style#rgb(int)}
+     */
+    void setCurrentBackground(final int packed) {
+        this.currentStyle = this.currentStyle.withBackground(packed);
+    }
+
+    /**
+     * Sets the current foreground.
+     *
+     * @param packed
+     *            the new current foreground as packed color, see {@link Style#indexed(int)} and
+     *            {@link Style#rgb(int)}
+     */
+    void setCurrentForeground(final int packed) {
+        this.currentStyle = this.currentStyle.withForeground(packed);
     }
 
     /**
@@ -57,19 +79,14 @@ public class StyleState {
      *            the val
      */
     public void setOption(final Style.Option opt, final boolean val) {
-        this.rollStyle();
-        this.currentStyle.setOption(opt, val);
+        this.currentStyle = this.currentStyle.withOption(opt, val);
     }
 
     /**
      * Reset.
      */
     public void reset() {
-        this.rollStyle();
-        this.currentStyle.setForeground(Style.FOREGROUND);
-        this.currentStyle.setBackground(Style.BACKGROUND);
-        this.currentStyle.clearOptions();
-
+        this.currentStyle = Style.EMPTY;
     }
 
 }
@@ -0,0 +1,458 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the history of a {@link ScrollBuffer} and the screen of a {@link BackBuffer} as plain text, as text with
+ * ANSI escape sequences for the styles or as HTML.
+ * <p>
+ * The history is exported in chunks of {@link #CHUNK_LINES} lines: a chunk is formatted while the scroll buffer is
+ * locked and written after the lock is released, so memory stays bounded by one chunk and the emulator is not held
+ * up by slow output. Lines added to the history during the export are included, lines evicted are skipped.
+ * <p>
+ * Lines are exported without trailing blanks. Rows of the screen marked as wrapped are joined to one line, also with
+ * the last history line if the first row of the screen continues it.
+ */
+public final class TerminalExporter implements StyledRunConsumer {
+
+    /**
+     * The Enum Format.
+     */
+    public static enum Format {
+
+        /** Plain text. */
+        PLAIN,
+
+        /** Text with SGR escape sequences for the styles. */
+        ANSI,
+
+        /** A HTML document with a span per styled run. */
+        HTML
+    }
+
+    /** The number of history lines formatted at once. */
+    private static final int CHUNK_LINES = 512;
+
+    /** The SGR codes of the options, by ordinal. */
+    private static final int[] OPTION_CODES = { 1, 5, 2, 7, 4, 8, 3, 9 };
+
+    /** The options. */
+    private static final Style.Option[] OPTIONS = Style.Option.values();
+
+    /** The hex digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The format. */
+    private final Format format;
+
+    /** The formatted output not written yet. */
+    private final StringBuilder out = new StringBuilder();
+
+    /** The style of the previous run, null at the start of a line. */
+    private Style currentStyle;
+
+    /** True, if a line was started. */
+    private boolean started;
+
+    /** True, if the line of the next run with x 0 was already started, see {@link #beginRow(boolean)}. */
+    private boolean rowBegun;
+
+    /** The name of the charset of the output, null if not known. */
+    private final String charsetName;
+
+    /**
+     * Instantiates a new terminal exporter.
+     *
+     * @param format
+     *            the format
+     * @param charsetName
+     *            the name of the charset of the output, null if not known
+     */
+    private TerminalExporter(final Format format, final String charsetName) {
+        this.format = format;
+        this.charsetName = charsetName;
+    }
+
+    /**
+     * Export history and screen.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer, may be null
+     * @param backBuffer
+     *            the back buffer, may be null
+     * @param format
+     *            the format
+     * @param writer
+     *            the writer, not closed, a HTML document names no charset since the writer decides the encoding
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public static void export(final ScrollBuffer scrollBuffer, final BackBuffer backBuffer, final Format format,
+        final Writer writer) throws IOException {
+        export(scrollBuffer, backBuffer, new TerminalExporter(format, null), writer);
+    }
+
+    /**
+     * Export history and screen with an exporter.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer, may be null
+     * @param backBuffer
+     *            the back buffer, may be null
+     * @param exporter
+     *            the exporter
+     * @param writer
+     *            the writer, not closed
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static void export(final ScrollBuffer scrollBuffer, final BackBuffer backBuffer,
+        final TerminalExporter exporter, final Writer writer) throws IOException {
+        exporter.begin();
+        long next = Long.MIN_VALUE;
+        if (scrollBuffer != null) {
+            boolean more = true;
+            while (more) {
+                synchronized (scrollBuffer) {
+                    next = exporter.pumpHistory(scrollBuffer, next);
+                    more = next < scrollBuffer.getLineZero();
+                }
+                exporter.flush(writer);
+            }
+        }
+        if (backBuffer != null) {
+            backBuffer.lock();
+            try {
+                // the rows scrolled off meanwhile go to the history first, so the screen continues its last line
+                backBuffer.flushScrolledRows();
+                boolean continued = false;
+                if (scrollBuffer != null) {
+                    synchronized (scrollBuffer) {
+                        while (next < scrollBuffer.getLineZero()) {
+                            next = exporter.pumpHistory(scrollBuffer, next);
+                        }
+                        continued = scrollBuffer.isLineContinued();
+                    }
+                }
+                exporter.pumpScreen(backBuffer, continued);
+            } finally {
+                backBuffer.unlock();
+            }
+        }
+        exporter.end();
+        exporter.flush(writer);
+        writer.flush();
+    }
+
+    /**
+     * Format a chunk of history lines, the scroll buffer must be locked.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer
+     * @param next
+     *            the number of the next line to format, counted from the creation of the buffer
+     * @return the number of the line after the chunk
+     */
+    private long pumpHistory(final ScrollBuffer scrollBuffer, final long next) {
+        final long lineZero = scrollBuffer.getLineZero();
+        final long first = Math.max(next, lineZero - scrollBuffer.getLineCount());
+        final int count = (int) Math.min(lineZero - first, CHUNK_LINES);
+        scrollBuffer.pumpRuns((int) (first - lineZero), count, this);
+        return first + count;
+    }
+
+    /**
+     * Format the rows of the screen down to the last row with content, the back buffer must be locked. Each row is
+     * formatted without trailing blanks unless it is wrapped, a wrapped row is joined with the next one.
+     *
+     * @param backBuffer
+     *            the back buffer
+     * @param continued
+     *            true, if the first row continues the last history line
+     */
+    private void pumpScreen(final BackBuffer backBuffer, final boolean continued) {
+        int height = backBuffer.getHeight();
+        while (height > 0 && backBuffer.row(height - 1).getContentLength() == 0) {
+            height--;
+        }
+        boolean join = continued;
+        for (int y = 0; y < height; y++) {
+            final ScreenRow row = backBuffer.row(y);
+            this.beginRow(join);
+            backBuffer.pumpRuns(0, y, row.wrapped ? backBuffer.getWidth() : row.getContentLength(), 1, this);
+            this.rowBegun = false;
+            join = row.wrapped;
+        }
+    }
+
+    /**
+     * Begin a row of the screen.
+     *
+     * @param join
+     *            true, if the row continues the line of the previous row
+     */
+    private void beginRow(final boolean join) {
+        if (!join) {
+            this.newLine();
+        }
+        this.rowBegun = true;
+    }
+
+    /**
+     * End the current line and start a new one.
+     */
+    private void newLine() {
+        this.endLine();
+        if (this.started) {
+            this.out.append('\n');
+        }
+        this.started = true;
+    }
+
+    /**
+     * Export history and screen to a channel.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer, may be null
+     * @param backBuffer
+     *            the back buffer, may be null
+     * @param format
+     *            the format
+     * @param channel
+     *            the channel, not closed
+     * @param charset
+     *            the charset, named in the meta element of a HTML document
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public static void export(final ScrollBuffer scrollBuffer, final BackBuffer backBuffer, final Format format,
+        final WritableByteChannel channel, final Charset charset) throws IOException {
+        export(scrollBuffer, backBuffer, new TerminalExporter(format, charset.name()),
+            Channels.newWriter(channel, charset.newEncoder(), -1));
+    }
+
+    /**
+     * Write the formatted output.
+     *
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void flush(final Writer writer) throws IOException {
+        if (this.out.length() > 0) {
+            writer.append(this.out);
+            this.out.setLength(0);
+        }
+    }
+
+    /**
+     * Begin the output.
+     */
+    private void begin() {
+        if (this.format == Format.HTML) {
+            this.out.append("<!DOCTYPE html>\n<html>\n<head>\n");
+            if (this.charsetName != null) {
+                this.out.append("<meta charset=\"").append(this.charsetName).append("\">\n");
+            }
+            this.out.append("</head>\n<body>\n<pre>");
+        }
+    }
+
+    /**
+     * End the output.
+     */
+    private void end() {
+        this.endLine();
+        if (this.started) {
+            this.out.append('\n');
+        }
+        if (this.format == Format.HTML) {
+            this.out.append("</pre>\n</body>\n</html>\n");
+        }
+    }
+
+    /**
+     * End the styles of a line.
+     */
+    private void endLine() {
+        if (this.currentStyle != null && this.currentStyle != Style.EMPTY) {
+            if (this.format == Format.ANSI) {
+                this.out.append("\033[0m");
+            } else if (this.format == Format.HTML) {
+                this.out.append("</span>");
+            }
+        }
+        this.currentStyle = null;
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.StyledRunConsumer#consumeRun(int, int, net.agilhard.terminal.emulation.Style, char[], int, int)
+     */
+    @SuppressWarnings("unused")
+    @Override
+    public void consumeRun(final int x, final int y, final Style style, final char[] buf, final int start,
+        final int len) {
+        if (x == 0) {
+            if (this.rowBegun) {
+                this.rowBegun = false;
+            } else {
+                this.newLine();
+            }
+        }
+        final Style runStyle = style == null ? Style.EMPTY : style;
+        switch (this.format) {
+        case ANSI:
+            // a line starts in the empty style, the previous line was reset at its end
+            if (runStyle != (this.currentStyle == null ? Style.EMPTY : this.currentStyle)) {
+                this.appendSgr(runStyle);
+                this.currentStyle = runStyle;
+            }
+            this.out.append(buf, start, len);
+            break;
+        case HTML:
+            if (runStyle != this.currentStyle) {
+                this.endLine();
+                this.appendSpan(runStyle);
+                this.currentStyle = runStyle;
+            }
+            this.appendEscaped(buf, start, len);
+            break;
+        default:
+            this.out.append(buf, start, len);
+        }
+    }
+
+    /**
+     * Append the SGR sequence switching to a style.
+     *
+     * @param style
+     *            the style
+     */
+    private void appendSgr(final Style style) {
+        this.out.append("\033[0");
+        for (final Style.Option option : OPTIONS) {
+            if (style.hasOption(option)) {
+                this.out.append(';').append(OPTION_CODES[option.ordinal()]);
+            }
+        }
+        this.appendSgrColor(style.getPackedForeground(), 30, 90, 38);
+        this.appendSgrColor(style.getPackedBackground(), 40, 100, 48);
+        this.out.append('m');
+    }
+
+    /**
+     * Append the SGR arguments of a packed color.
+     *
+     * @param packed
+     *            the packed color
+     * @param basic
+     *            the code of the first basic color
+     * @param bright
+     *            the code of the first bright color
+     * @param extended
+     *            the code of an extended color
+     */
+    private void appendSgrColor(final int packed, final int basic, final int bright, final int extended) {
+        if (packed == Style.COLOR_DEFAULT) {
+            return;
+        }
+        final int value = packed & 0xFFFFFF;
+        if ((packed & ~0xFFFFFF) == Style.COLOR_INDEXED) {
+            if (value < 8) {
+                this.out.append(';').append(basic + value);
+            } else if (value < 16) {
+                this.out.append(';').append(bright + value - 8);
+            } else {
+                this.out.append(';').append(extended).append(";5;").append(value);
+            }
+        } else {
+            this.out.append(';').append(extended).append(";2;").append(value >>> 16).append(';')
+                .append(value >>> 8 & 0xFF).append(';').append(value & 0xFF);
+        }
+    }
+
+    /**
+     * Append the span starting a style, nothing for the empty style.
+     *
+     * @param style
+     *            the style
+     */
+    private void appendSpan(final Style style) {
+        if (style == Style.EMPTY) {
+            return;
+        }
+        final int bg = style.getBackgroundForRun().getRGB();
+        final int fg = style.hasOption(Style.Option.HIDDEN) ? bg : style.getForegroundForRun().getRGB();
+        this.out.append("<span style=\"color:");
+        this.appendHex(fg);
+        this.out.append(";background-color:");
+        this.appendHex(bg);
+        if (style.hasOption(Style.Option.BOLD)) {
+            this.out.append(";font-weight:bold");
+        }
+        if (style.hasOption(Style.Option.ITALIC)) {
+            this.out.append(";font-style:italic");
+        }
+        if (style.hasOption(Style.Option.DIM)) {
+            this.out.append(";opacity:0.6");
+        }
+        final boolean underline = style.hasOption(Style.Option.UNDERSCORE);
+        final boolean crossedOut = style.hasOption(Style.Option.CROSSED_OUT);
+        if (underline || crossedOut) {
+            this.out.append(";text-decoration:").append(underline ? "underline" : "")
+                .append(underline && crossedOut ? " " : "").append(crossedOut ? "line-through" : "");
+        }
+        this.out.append("\">");
+    }
+
+    /**
+     * Append a color as #rrggbb.
+     *
+     * @param rgb
+     *            the rgb
+     */
+    private void appendHex(final int rgb) {
+        this.out.append('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            this.out.append(HEX[rgb >>> shift & 0xF]);
+        }
+    }
+
+    /**
+     * Append chars, escaping the HTML special chars.
+     *
+     * @param buf
+     *            the buf
+     * @param start
+     *            the start
+     * @param len
+     *            the len
+     */
+    private void appendEscaped(final char[] buf, final int start, final int len) {
+        for (int i = start; i < start + len; i++) {
+            final char c = buf[i];
+            switch (c) {
+            case '<':
+                this.out.append("&lt;");
+                break;
+            case '>':
+                this.out.append("&gt;");
+                break;
+            case '&':
+                this.out.append("&amp;");
+                break;
+            case '"':
+                this.out.append("&quot;");
+                break;
+            default:
+                this.out.append(c);
+            }
+        }
+    }
+
+}
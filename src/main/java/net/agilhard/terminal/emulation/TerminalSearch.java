@@ -0,0 +1,59 @@
+package net.agilhard.terminal.emulation;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Searches the history of a {@link ScrollBuffer} and the screen of a {@link BackBuffer}.
+ */
+public final class TerminalSearch {
+
+    /**
+     * Private constructor for utility class.
+     */
+    private TerminalSearch() {
+        // .
+    }
+
+    /**
+     * Search the history and then the screen. The hits are found lazily, oldest line first.
+     *
+     * @param scrollBuffer
+     *            the scroll buffer, may be null
+     * @param backBuffer
+     *            the back buffer, may be null
+     * @param query
+     *            the query
+     * @return the hits
+     */
+    public static Iterator<SearchHit> search(final ScrollBuffer scrollBuffer, final BackBuffer backBuffer,
+        final SearchQuery query) {
+        final Iterator<SearchHit> history = scrollBuffer == null ? null : scrollBuffer.search(query);
+        final Iterator<SearchHit> screen = backBuffer == null ? null : backBuffer.search(query);
+        return new Iterator<SearchHit>() {
+
+            /* (non-Javadoc)
+             * @see java.util.Iterator#hasNext()
+             */
+            @Override
+            public boolean hasNext() {
+                return history != null && history.hasNext() || screen != null && screen.hasNext();
+            }
+
+            /* (non-Javadoc)
+             * @see java.util.Iterator#next()
+             */
+            @Override
+            public SearchHit next() {
+                if (history != null && history.hasNext()) {
+                    return history.next();
+                }
+                if (screen != null && screen.hasNext()) {
+                    return screen.next();
+                }
+                throw new NoSuchElementException();
+            }
+        };
+    }
+
+}
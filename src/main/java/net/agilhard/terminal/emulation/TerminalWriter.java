@@ -3,9 +3,7 @@
  */
 package net.agilhard.terminal.emulation;
 
-import java.awt.Color;
 import java.awt.Dimension;
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.EnumSet;
 
@@ -35,6 +33,12 @@ public class TerminalWriter {
     /** The cursor y. */
     private int cursorY = 1;
 
+    /** The cursor x published with the last frame. */
+    private int publishedCursorX = -1;
+
+    /** The cursor y published with the last frame. */
+    private int publishedCursorY = -1;
+
     /** The term width. */
     private int termWidth = 80;
 
@@ -44,6 +48,9 @@ public class TerminalWriter {
     /** The display. */
     private final TerminalDisplay display;
 
+    /** The display if it is updated once per frame, else null. */
+    private final BatchedTerminalDisplay batchedDisplay;
+
     /** The back buffer. */
     private final BackBuffer backBuffer;
 
@@ -53,6 +60,9 @@ public class TerminalWriter {
     /** The modes. */
     private final EnumSet<Mode> modes = EnumSet.of(Mode.ANSI);
 
+    /** The cursor saved when entering the alternate screen with {@link Mode#AlternateScreenSaveCursor}. */
+    private final StoredCursor alternateCursor = new StoredCursor();
+
     /**
      * Instantiates a new terminal writer.
      *
@@ -65,6 +75,7 @@ public class TerminalWriter {
      */
     public TerminalWriter(final TerminalDisplay term, final BackBuffer buf, final StyleState styleState) {
         this.display = term;
+        this.batchedDisplay = term instanceof BatchedTerminalDisplay ? (BatchedTerminalDisplay) term : null;
         this.backBuffer = buf;
         this.styleState = styleState;
 
@@ -89,6 +100,17 @@ public class TerminalWriter {
             this.clearScreen();
             this.restoreCursor(null);
             break;
+        case AlternateScreen:
+        case AlternateScreenClear:
+            this.setAlternateScreen(true);
+            break;
+        case AlternateScreenSaveCursor:
+            if (!this.backBuffer.isAlternateScreen()) {
+                this.storeCursor(this.alternateCursor);
+                this.setAlternateScreen(true);
+                this.clearScreen();
+            }
+            break;
         default:
             //TODO implement modes
             break;
@@ -109,27 +131,109 @@ public class TerminalWriter {
             this.clearScreen();
             this.restoreCursor(null);
             break;
+        case AlternateScreen:
+            this.setAlternateScreen(false);
+            break;
+        case AlternateScreenClear:
+            if (this.backBuffer.isAlternateScreen()) {
+                this.clearScreen();
+                this.setAlternateScreen(false);
+            }
+            break;
+        case AlternateScreenSaveCursor:
+            if (this.backBuffer.isAlternateScreen()) {
+                this.setAlternateScreen(false);
+                // the size may have changed on the alternate screen
+                this.alternateCursor.x = Math.min(this.alternateCursor.x, this.termWidth - 1);
+                this.alternateCursor.y = Math.min(this.alternateCursor.y, this.termHeight);
+                this.restoreCursor(this.alternateCursor);
+            }
+            break;
         default:
             //TODO implement modes
             break;
         }
     }
 
+    /**
+     * Switch between the main and the alternate screen.
+     *
+     * @param on
+     *            true for the alternate screen
+     */
+    private void setAlternateScreen(final boolean on) {
+        this.backBuffer.lock();
+        try {
+            this.backBuffer.setAlternateScreen(on);
+        } finally {
+            this.backBuffer.unlock();
+        }
+    }
+
     /**
      * Wrap lines.
      */
     private void wrapLines() {
         if (this.cursorX >= this.termWidth) {
+            // the row continues on the next one, a resize reflows them as one line
+            this.backBuffer.setWrapped(this.cursorY - 1, true);
             this.cursorX = 0;
             this.cursorY += 1;
         }
     }
 
+    /**
+     * Tell the display the cursor has moved, unless it gets the cursor with the next frame.
+     */
+    private void cursorMoved() {
+        if (this.batchedDisplay == null) {
+            this.display.setCursor(this.cursorX, this.cursorY);
+        }
+    }
+
+    /**
+     * Checks if the display is updated once per frame.
+     *
+     * @return true, if batched
+     */
+    public boolean isBatched() {
+        return this.batchedDisplay != null;
+    }
+
+    /**
+     * Publish the damage collected since the last frame to a {@link BatchedTerminalDisplay}. Nothing is published if
+     * neither the screen nor the cursor has changed.
+     */
+    public void publishFrame() {
+        if (this.batchedDisplay == null) {
+            return;
+        }
+        if (!this.backBuffer.hasFrameDamage() && this.cursorX == this.publishedCursorX
+            && this.cursorY == this.publishedCursorY) {
+            return;
+        }
+        this.publishedCursorX = this.cursorX;
+        this.publishedCursorY = this.cursorY;
+        this.batchedDisplay.publishFrame(this.backBuffer.takeFrame(this.cursorX, this.cursorY));
+    }
+
+    /**
+     * Hand the rows scrolled off the screen since the last call to the scroll buffer of the back buffer.
+     */
+    public void flushScrolledRows() {
+        this.backBuffer.lock();
+        try {
+            this.backBuffer.flushScrolledRows();
+        } finally {
+            this.backBuffer.unlock();
+        }
+    }
+
     /**
      * Finish text.
      */
     private void finishText() {
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
         this.scrollY();
     }
 
@@ -159,15 +263,28 @@ public class TerminalWriter {
     }
 
     /**
-     * Write double byte.
+     * Write decoded characters.
      *
-     * @param bytesOfChar
-     *            the bytes of char
-     * @throws UnsupportedEncodingException
-     *             the unsupported encoding exception
+     * @param chars
+     *            the chars
+     * @param start
+     *            the start
+     * @param length
+     *            the length, at most the distance to the line end
      */
-    public void writeDoubleByte(final byte[] bytesOfChar) throws UnsupportedEncodingException {
-        this.writeString(new String(bytesOfChar, 0, 2, "EUC-JP"));
+    public void writeChars(final char[] chars, final int start, final int length) {
+        this.backBuffer.lock();
+        try {
+            this.wrapLines();
+            if (length != 0) {
+                this.backBuffer.clearArea(this.cursorX, this.cursorY - 1, this.cursorX + length, this.cursorY);
+                this.backBuffer.drawChars(chars, start, length, this.cursorX, this.cursorY);
+            }
+            this.cursorX += length;
+            this.finishText();
+        } finally {
+            this.backBuffer.unlock();
+        }
     }
 
     /**
@@ -230,7 +347,7 @@ public class TerminalWriter {
                 this.cursorY = this.scrollRegionBottom;
                 this.scrollArea(this.scrollRegionTop, this.scrollRegionBottom - this.scrollRegionTop, dy);
                 this.backBuffer.clearArea(0, this.cursorY - 1, this.termWidth, this.cursorY);
-                this.display.setCursor(this.cursorX, this.cursorY);
+                this.cursorMoved();
             }
         } finally {
             this.backBuffer.unlock();
@@ -242,7 +359,7 @@ public class TerminalWriter {
      */
     public void newLine() {
         this.cursorY += 1;
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
         this.scrollY();
     }
 
@@ -255,7 +372,7 @@ public class TerminalWriter {
             this.cursorY -= 1;
             this.cursorX = this.termWidth - 1;
         }
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
     }
 
     /**
@@ -263,7 +380,7 @@ public class TerminalWriter {
      */
     public void carriageReturn() {
         this.cursorX = 0;
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
     }
 
     /**
@@ -275,7 +392,7 @@ public class TerminalWriter {
             this.cursorX = 0;
             this.cursorY += 1;
         }
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
     }
 
     /**
@@ -305,7 +422,8 @@ public class TerminalWriter {
                 break;
             case 1:
                 // initial line
-                this.backBuffer.clearArea(0, this.cursorY - 1, this.cursorX + 1, this.cursorY);
+                final int extent = Math.min(this.cursorX + 1, this.termWidth);
+                this.backBuffer.clearArea(0, this.cursorY - 1, extent, this.cursorY);
 
                 beginY = 0;
                 endY = this.cursorY - 1;
@@ -405,12 +523,12 @@ public class TerminalWriter {
     public void cursorUp(final ControlSequence args) {
         this.backBuffer.lock();
         try {
-            int arg = args.getArg(0, 0);
-            arg = arg == 0 ? 1 : arg;
+            // a count of 0 moves by 1
+            final int arg = Math.max(args.getArg(0, 1), 1);
 
             this.cursorY -= arg;
             this.cursorY = Math.max(this.cursorY, 1);
-            this.display.setCursor(this.cursorX, this.cursorY);
+            this.cursorMoved();
         } finally {
             this.backBuffer.unlock();
         }
@@ -425,11 +543,11 @@ public class TerminalWriter {
     public void cursorDown(final ControlSequence args) {
         this.backBuffer.lock();
         try {
-            int arg = args.getArg(0, 0);
-            arg = arg == 0 ? 1 : arg;
+            // a count of 0 moves by 1
+            final int arg = Math.max(args.getArg(0, 1), 1);
             this.cursorY += arg;
             this.cursorY = Math.min(this.cursorY, this.termHeight);
-            this.display.setCursor(this.cursorX, this.cursorY);
+            this.cursorMoved();
         } finally {
             this.backBuffer.unlock();
         }
@@ -446,7 +564,7 @@ public class TerminalWriter {
                 this.backBuffer.clearArea(0, this.scrollRegionBottom - 1, this.termWidth, this.scrollRegionBottom);
             } else {
                 this.cursorY += 1;
-                this.display.setCursor(this.cursorX, this.cursorY);
+                this.cursorMoved();
             }
         } finally {
             this.backBuffer.unlock();
@@ -465,7 +583,9 @@ public class TerminalWriter {
      *            the dy
      */
     private void scrollArea(final int y, final int h, final int dy) {
-        this.display.scrollArea(y, h, dy);
+        if (this.batchedDisplay == null) {
+            this.display.scrollArea(y, h, dy);
+        }
         this.backBuffer.scrollArea(y, h, dy);
     }
 
@@ -482,7 +602,7 @@ public class TerminalWriter {
             } else {
                 this.cursorY += 1;
             }
-            this.display.setCursor(this.cursorX, this.cursorY);
+            this.cursorMoved();
         } finally {
             this.backBuffer.unlock();
         }
@@ -499,7 +619,7 @@ public class TerminalWriter {
                 this.backBuffer.clearArea(this.cursorX, this.cursorY - 1, this.termWidth, this.cursorY);
             } else {
                 this.cursorY -= 1;
-                this.display.setCursor(this.cursorX, this.cursorY);
+                this.cursorMoved();
             }
         } finally {
             this.backBuffer.unlock();
@@ -513,11 +633,11 @@ public class TerminalWriter {
      *            the args
      */
     public void cursorForward(final ControlSequence args) {
-        int arg = args.getArg(0, 1);
-        arg = arg == 0 ? 1 : arg;
+        // a count of 0 moves by 1
+        final int arg = Math.max(args.getArg(0, 1), 1);
         this.cursorX += arg;
         this.cursorX = Math.min(this.cursorX, this.termWidth - 1);
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
     }
 
     /**
@@ -527,25 +647,25 @@ public class TerminalWriter {
      *            the args
      */
     public void cursorBackward(final ControlSequence args) {
-        int arg = args.getArg(0, 1);
-        arg = arg == 0 ? 1 : arg;
+        // a count of 0 moves by 1
+        final int arg = Math.max(args.getArg(0, 1), 1);
         this.cursorX -= arg;
         this.cursorX = Math.max(this.cursorX, 0);
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
     }
 
     /**
-     * Cursor position.
+     * Cursor position. A row or column of 0 is taken as 1, positions beyond the screen as its last row or column.
      *
      * @param args
      *            the args
      */
     public void cursorPosition(final ControlSequence args) {
-        final int argy = args.getArg(0, 1);
-        final int argx = args.getArg(1, 1);
-        this.cursorX = argx - 1;
-        this.cursorY = argy;
-        this.display.setCursor(this.cursorX, this.cursorY);
+        final int argy = Math.max(args.getArg(0, 1), 1);
+        final int argx = Math.max(args.getArg(1, 1), 1);
+        this.cursorX = Math.min(argx, this.termWidth) - 1;
+        this.cursorY = Math.min(argy, this.termHeight);
+        this.cursorMoved();
     }
 
     /**
@@ -572,12 +692,17 @@ public class TerminalWriter {
      * have the following meanings: 0 or None All Attributes Off 1 Bold on 4
      * Underscore on 5 Blink on 7 Reverse video on
      *
+     * ECMA-48 and xterm add 3 Italic, 9 Crossed out, 22 to 29 to switch
+     * attributes off, 30 to 37 and 40 to 47 for the basic colors, 90 to 97 and
+     * 100 to 107 for the bright colors, 39 and 49 for the default colors and
+     * 38 and 48 for an indexed color (;5;n) or a RGB color (;2;r;g;b), the
+     * latter also with colons as separators.
+     *
      * Any other parameter values are ignored.
      */
 
-    /** The colors. */
-    private static Color[] colors =
-        { Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW, Color.BLUE, Color.MAGENTA, Color.CYAN, Color.WHITE };
+    /** The first of the 8 bright colors in the {@link ColorPalette}. */
+    private static final int BRIGHT_COLORS = 8;
 
     /*
      * (non-Javadoc)
@@ -597,11 +722,8 @@ public class TerminalWriter {
         }
 
         for (int i = 0; i < argCount; i++) {
-            final int arg = args.getArg(i, -1);
-            if (arg == -1) {
-                this.log.error("Error in processing char attributes, arg " + i);
-                continue;
-            }
+            // an omitted argument counts as 0
+            final int arg = args.getArg(i, 0);
 
             switch (arg) {
             case 0:
@@ -613,6 +735,9 @@ public class TerminalWriter {
             case 2:// Dim
                 this.styleState.setOption(Style.Option.DIM, true);
                 break;
+            case 3:// Italic
+                this.styleState.setOption(Style.Option.ITALIC, true);
+                break;
             case 4:// Underscore on
                 this.styleState.setOption(Style.Option.UNDERSCORE, true);
                 break;
@@ -625,18 +750,136 @@ public class TerminalWriter {
             case 8: // Hidden
                 this.styleState.setOption(Style.Option.HIDDEN, true);
                 break;
+            case 9: // Crossed out
+                this.styleState.setOption(Style.Option.CROSSED_OUT, true);
+                break;
+            case 22:// Normal intensity
+                this.styleState.setOption(Style.Option.BOLD, false);
+                this.styleState.setOption(Style.Option.DIM, false);
+                break;
+            case 23:
+                this.styleState.setOption(Style.Option.ITALIC, false);
+                break;
+            case 24:
+                this.styleState.setOption(Style.Option.UNDERSCORE, false);
+                break;
+            case 25:
+                this.styleState.setOption(Style.Option.BLINK, false);
+                break;
+            case 27:
+                this.styleState.setOption(Style.Option.REVERSE, false);
+                break;
+            case 28:
+                this.styleState.setOption(Style.Option.HIDDEN, false);
+                break;
+            case 29:
+                this.styleState.setOption(Style.Option.CROSSED_OUT, false);
+                break;
+            case 38:
+            case 48:
+                i = this.setExtendedColor(args, i, arg == 38);
+                break;
+            case 39:
+                this.styleState.setCurrentForeground(Style.COLOR_DEFAULT);
+                break;
+            case 49:
+                this.styleState.setCurrentBackground(Style.COLOR_DEFAULT);
+                break;
             default:
                 if (arg >= 30 && arg <= 37) {
-                    this.styleState.setCurrentForeground(colors[arg - 30]);
+                    this.styleState.setCurrentForeground(Style.indexed(arg - 30));
                 } else if (arg >= 40 && arg <= 47) {
-                    this.styleState.setCurrentBackground(colors[arg - 40]);
-                } else {
-                    this.log.error("Unknown character attribute:" + arg);
+                    this.styleState.setCurrentBackground(Style.indexed(arg - 40));
+                } else if (arg >= 90 && arg <= 97) {
+                    this.styleState.setCurrentForeground(Style.indexed(BRIGHT_COLORS + arg - 90));
+                } else if (arg >= 100 && arg <= 107) {
+                    this.styleState.setCurrentBackground(Style.indexed(BRIGHT_COLORS + arg - 100));
+                } else if (this.log.isDebugEnabled()) {
+                    this.log.debug("Unknown character attribute: {}", Integer.valueOf(arg));
                 }
             }
         }
     }
 
+    /**
+     * Sets an indexed or RGB color given by the arguments following a 38 or 48, or by its colon separated sub
+     * arguments. An invalid color is ignored.
+     *
+     * @param args
+     *            the args
+     * @param index
+     *            the index of the 38 or 48 argument
+     * @param foreground
+     *            true for the foreground, false for the background
+     * @return the index of the last argument belonging to the color
+     */
+    private int setExtendedColor(final ControlSequence args, final int index, final boolean foreground) {
+        int color = -1;
+        int last = index;
+        final int subCount = args.getSubCount(index);
+        if (subCount > 0) {
+            final int mode = args.getSubArg(index, 0, 0);
+            if (mode == 5) {
+                color = indexedColor(args.getSubArg(index, 1, 0));
+            } else if (mode == 2) {
+                // ITU T.416 puts a color space id before the components, which is optional in practice
+                final int first = subCount >= 5 ? 2 : 1;
+                color = rgbColor(args.getSubArg(index, first, 0), args.getSubArg(index, first + 1, 0),
+                    args.getSubArg(index, first + 2, 0));
+            }
+        } else {
+            final int mode = args.getArg(index + 1, 0);
+            if (mode == 5) {
+                color = indexedColor(args.getArg(index + 2, 0));
+                last = index + 2;
+            } else if (mode == 2) {
+                color = rgbColor(args.getArg(index + 2, 0), args.getArg(index + 3, 0), args.getArg(index + 4, 0));
+                last = index + 4;
+            } else {
+                last = index + 1;
+            }
+        }
+        if (color < 0) {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("Invalid extended color in character attributes");
+            }
+        } else if (foreground) {
+            this.styleState.setCurrentForeground(color);
+        } else {
+            this.styleState.setCurrentBackground(color);
+        }
+        return Math.min(last, args.getCount() - 1);
+    }
+
+    /**
+     * Pack an indexed color.
+     *
+     * @param index
+     *            the index
+     * @return the packed color, -1 if the index is out of range
+     */
+    private static int indexedColor(final int index) {
+        return index < ColorPalette.SIZE ? Style.indexed(index) : -1;
+    }
+
+    /**
+     * Pack a RGB color.
+     *
+     * @param r
+     *            the red component
+     * @param g
+     *            the green component
+     * @param b
+     *            the blue component
+     * @return the packed color, -1 if a component is out of range
+     */
+    private static int rgbColor(final int r, final int g, final int b) {
+        if (r > 255 || g > 255 || b > 255) {
+            return -1;
+        }
+        return Style.rgb(r << 16 | g << 8 | b);
+    }
+
     /**
      * Beep.
      */
@@ -664,6 +907,24 @@ public class TerminalWriter {
         storedCursor.y = this.cursorY;
     }
 
+    /**
+     * Gets the cursor x.
+     *
+     * @return the column of the cursor, 0-based
+     */
+    public int getCursorX() {
+        return this.cursorX;
+    }
+
+    /**
+     * Gets the cursor y.
+     *
+     * @return the row of the cursor, 1-based
+     */
+    public int getCursorY() {
+        return this.cursorY;
+    }
+
     /**
      * Restore cursor.
      *
@@ -678,7 +939,7 @@ public class TerminalWriter {
             this.cursorX = storedCursor.x;
             this.cursorY = storedCursor.y;
         }
-        this.display.setCursor(this.cursorX, this.cursorY);
+        this.cursorMoved();
     }
 
     /**
@@ -691,16 +952,37 @@ public class TerminalWriter {
      * @return the dimension
      */
     public Dimension resize(final Dimension pendingResize, final RequestOrigin origin) {
-        final int oldHeight = this.termHeight;
-        final Dimension pixelSize = this.display.doResize(pendingResize, origin);
+        this.backBuffer.lock();
+        try {
+            final int oldHeight = this.termHeight;
+            this.backBuffer.setResizeCursor(this.cursorX, this.cursorY);
+            final boolean alternate = this.backBuffer.isAlternateScreen();
+            if (alternate) {
+                this.backBuffer.setHiddenResizeCursor(this.alternateCursor.x, this.alternateCursor.y);
+            }
+            final Dimension pixelSize = this.display.doResize(pendingResize, origin);
+            if (alternate) {
+                // restored when the alternate screen is left
+                this.alternateCursor.x = this.backBuffer.getHiddenResizeCursorX();
+                this.alternateCursor.y = this.backBuffer.getHiddenResizeCursorY();
+            }
 
-        this.termWidth = this.display.getColumnCount();
-        this.termHeight = this.display.getRowCount();
+            this.termWidth = this.display.getColumnCount();
+            this.termHeight = this.display.getRowCount();
 
-        this.scrollRegionBottom += this.termHeight - oldHeight;
-        this.cursorY += this.termHeight - oldHeight;
-        this.cursorY = Math.max(1, this.cursorY);
-        return pixelSize;
+            this.scrollRegionBottom += this.termHeight - oldHeight;
+            if (this.backBuffer.isResizeCursorMoved()) {
+                // the lines were reflowed, the cursor stays at its cell
+                this.cursorX = this.backBuffer.getResizeCursorX();
+                this.cursorY = this.backBuffer.getResizeCursorY();
+            } else {
+                this.cursorY += this.termHeight - oldHeight;
+            }
+            this.cursorY = Math.max(1, Math.min(this.cursorY, this.termHeight));
+            return pixelSize;
+        } finally {
+            this.backBuffer.unlock();
+        }
     }
 
     /**
@@ -0,0 +1,267 @@
+package net.agilhard.terminal.emulation;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder for the printable text runs found by the {@link VtParser}.
+ * <p>
+ * UTF-8 is decoded by a hand written incremental decoder, any other ASCII compatible charset goes through a
+ * {@link CharsetDecoder}. Byte sequences split across chunks are completed on the next call. Every character takes
+ * one cell on the screen, so code points outside the basic multilingual plane and malformed input are replaced by
+ * U+FFFD. The decoded characters are written to a reusable buffer, nothing is allocated per call once the buffer has
+ * grown to the chunk size.
+ */
+final class TextDecoder {
+
+    /** The replacement character. */
+    static final char REPLACEMENT = '\uFFFD';
+
+    /** The maximum number of bytes kept for an incomplete legacy character. */
+    private static final int MAX_PENDING = 16;
+
+    /** The charset. */
+    private final Charset charset;
+
+    /** The decoder for legacy charsets, null for UTF-8. */
+    private final CharsetDecoder decoder;
+
+    /** The decoded characters. */
+    private char[] chars = new char[1024];
+
+    /** The decoded characters as CharBuffer, for the legacy decoder. */
+    private CharBuffer charBuffer;
+
+    /** The input as ByteBuffer, for the legacy decoder. */
+    private ByteBuffer byteBuffer;
+
+    /** The bytes of an incomplete legacy character. */
+    private final byte[] pending = new byte[MAX_PENDING];
+
+    /** The pending bytes as ByteBuffer. */
+    private final ByteBuffer pendingBuffer = ByteBuffer.wrap(this.pending);
+
+    /** The number of pending bytes of an incomplete legacy character. */
+    private int pendingCount;
+
+    /** The code point bits collected for an incomplete UTF-8 sequence. */
+    private int codePoint;
+
+    /** The number of continuation bytes still needed for an incomplete UTF-8 sequence. */
+    private int needed;
+
+    /** The smallest code point allowed for the current UTF-8 sequence, to reject overlong encodings. */
+    private int minCodePoint;
+
+    /**
+     * Instantiates a new text decoder.
+     *
+     * @param charset
+     *            the charset
+     */
+    TextDecoder(final Charset charset) {
+        this.charset = charset;
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            this.decoder = null;
+        } else {
+            this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE).replaceWith(String.valueOf(REPLACEMENT));
+        }
+    }
+
+    /**
+     * Gets the charset.
+     *
+     * @return the charset
+     */
+    Charset getCharset() {
+        return this.charset;
+    }
+
+    /**
+     * Gets the buffer holding the characters decoded by the last call.
+     *
+     * @return the chars
+     */
+    char[] getChars() {
+        return this.chars;
+    }
+
+    /**
+     * Checks if an incomplete character is pending.
+     *
+     * @return true, if pending
+     */
+    boolean hasPending() {
+        return this.needed > 0 || this.pendingCount > 0;
+    }
+
+    /**
+     * Drop an incomplete character, e.g. when it is interrupted by a control character.
+     *
+     * @return the number of characters written to the buffer, 1 for the replacement character or 0
+     */
+    int flush() {
+        if (!this.hasPending()) {
+            return 0;
+        }
+        this.needed = 0;
+        this.pendingCount = 0;
+        if (this.decoder != null) {
+            this.decoder.reset();
+        }
+        this.chars[0] = REPLACEMENT;
+        return 1;
+    }
+
+    /**
+     * Decode bytes.
+     *
+     * @param buf
+     *            the buffer
+     * @param start
+     *            the start
+     * @param length
+     *            the length
+     * @return the number of characters written to the buffer
+     */
+    int decode(final byte[] buf, final int start, final int length) {
+        if (this.chars.length < length + MAX_PENDING) {
+            this.chars = new char[length + MAX_PENDING];
+            this.charBuffer = null;
+        }
+        if (this.decoder == null) {
+            return this.decodeUtf8(buf, start, length);
+        }
+        return this.decodeLegacy(buf, start, length);
+    }
+
+    /**
+     * Decode UTF-8.
+     *
+     * @param buf
+     *            the buffer
+     * @param start
+     *            the start
+     * @param length
+     *            the length
+     * @return the number of characters written to the buffer
+     */
+    private int decodeUtf8(final byte[] buf, final int start, final int length) {
+        final char[] out = this.chars;
+        final int end = start + length;
+        int n = 0;
+        int i = start;
+        while (i < end) {
+            final int b = buf[i] & 0xFF;
+            if (this.needed == 0) {
+                if (b < 0x80) {
+                    out[n++] = (char) b;
+                } else if (b >= 0xC2 && b <= 0xDF) {
+                    this.start(b & 0x1F, 1, 0x80);
+                } else if (b >= 0xE0 && b <= 0xEF) {
+                    this.start(b & 0x0F, 2, 0x800);
+                } else if (b >= 0xF0 && b <= 0xF4) {
+                    this.start(b & 0x07, 3, 0x10000);
+                } else {
+                    out[n++] = REPLACEMENT;
+                }
+            } else if ((b & 0xC0) == 0x80) {
+                this.codePoint = this.codePoint << 6 | b & 0x3F;
+                if (--this.needed == 0) {
+                    final int cp = this.codePoint;
+                    if (cp < this.minCodePoint || cp > 0xFFFF || cp >= 0xD800 && cp <= 0xDFFF) {
+                        out[n++] = REPLACEMENT;
+                    } else {
+                        out[n++] = (char) cp;
+                    }
+                }
+            } else {
+                // sequence interrupted, the byte is decoded again as start of a new one
+                this.needed = 0;
+                out[n++] = REPLACEMENT;
+                continue;
+            }
+            i++;
+        }
+        return n;
+    }
+
+    /**
+     * Start a multi byte UTF-8 sequence.
+     *
+     * @param bits
+     *            the code point bits of the lead byte
+     * @param continuationBytes
+     *            the number of continuation bytes
+     * @param min
+     *            the smallest code point allowed
+     */
+    private void start(final int bits, final int continuationBytes, final int min) {
+        this.codePoint = bits;
+        this.needed = continuationBytes;
+        this.minCodePoint = min;
+    }
+
+    /**
+     * Decode a legacy charset.
+     *
+     * @param buf
+     *            the buffer
+     * @param start
+     *            the start
+     * @param length
+     *            the length
+     * @return the number of characters written to the buffer
+     */
+    private int decodeLegacy(final byte[] buf, final int start, final int length) {
+        if (this.charBuffer == null) {
+            this.charBuffer = CharBuffer.wrap(this.chars);
+        }
+        if (this.byteBuffer == null || this.byteBuffer.array() != buf) {
+            this.byteBuffer = ByteBuffer.wrap(buf);
+        }
+        final CharBuffer out = this.charBuffer;
+        out.clear();
+        final int end = start + length;
+        int i = start;
+
+        // complete a character split across chunks byte by byte
+        while (this.pendingCount > 0 && i < end) {
+            this.pending[this.pendingCount++] = buf[i++];
+            this.pendingBuffer.clear();
+            this.pendingBuffer.limit(this.pendingCount);
+            this.decoder.decode(this.pendingBuffer, out, false);
+            final int left = this.pendingBuffer.remaining();
+            System.arraycopy(this.pending, this.pendingBuffer.position(), this.pending, 0, left);
+            this.pendingCount = left;
+            if (left == MAX_PENDING) {
+                out.put(REPLACEMENT);
+                this.pendingCount = 0;
+            }
+        }
+
+        final ByteBuffer in = this.byteBuffer;
+        in.clear();
+        in.limit(end);
+        in.position(i);
+        final CoderResult result = this.decoder.decode(in, out, false);
+        if (result.isOverflow()) {
+            // cannot happen for ASCII compatible charsets, the buffer is larger than the input
+            out.put(REPLACEMENT);
+            in.position(end);
+        }
+        final int left = Math.min(in.remaining(), MAX_PENDING);
+        if (left > 0) {
+            in.get(this.pending, 0, left);
+            this.pendingCount = left;
+        }
+        return out.position();
+    }
+
+}
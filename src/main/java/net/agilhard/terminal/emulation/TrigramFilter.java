@@ -0,0 +1,113 @@
+package net.agilhard.terminal.emulation;
+
+/**
+ * A bloom filter of the trigrams of a text, built incrementally as the text is appended.
+ * <p>
+ * Chars are folded to lower case, so the filter serves case sensitive and insensitive queries. It has 4096 bits and
+ * a single hash, for a section of {@link ScrollBuffer} that rules out most sections not containing a query of a few
+ * words.
+ */
+final class TrigramFilter {
+
+    /** The bits of a filter index. */
+    private static final int INDEX_BITS = 12;
+
+    /** The bits. */
+    private final long[] bits;
+
+    /**
+     * Instantiates a new empty filter.
+     */
+    TrigramFilter() {
+        this.bits = new long[(1 << INDEX_BITS) / Long.SIZE];
+    }
+
+    /**
+     * Instantiates a copy of a filter.
+     *
+     * @param other
+     *            the filter
+     */
+    private TrigramFilter(final TrigramFilter other) {
+        this.bits = other.bits.clone();
+    }
+
+    /**
+     * Gets the filter bit of a trigram.
+     *
+     * @param c1
+     *            the first char, folded
+     * @param c2
+     *            the second char, folded
+     * @param c3
+     *            the third char, folded
+     * @return the bit
+     */
+    static int bit(final char c1, final char c2, final char c3) {
+        final int h = (c1 * 31 + c2) * 31 + c3;
+        return h * 0x9E3779B9 >>> Integer.SIZE - INDEX_BITS;
+    }
+
+    /**
+     * Fold a char.
+     *
+     * @param c
+     *            the char
+     * @return the char in lower case
+     */
+    static char fold(final char c) {
+        return c < 0x80 ? c >= 'A' && c <= 'Z' ? (char) (c + 32) : c : Character.toLowerCase(c);
+    }
+
+    /**
+     * Gets the filter bits of the trigrams of a text.
+     *
+     * @param text
+     *            the text
+     * @return the bits
+     */
+    static int[] bits(final CharSequence text) {
+        final int count = Math.max(text.length() - 2, 0);
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = bit(fold(text.charAt(i)), fold(text.charAt(i + 1)), fold(text.charAt(i + 2)));
+        }
+        return result;
+    }
+
+    /**
+     * Copy the filter, the copy does not change when trigrams are added.
+     *
+     * @return the copy
+     */
+    TrigramFilter copy() {
+        return new TrigramFilter(this);
+    }
+
+    /**
+     * Add a trigram.
+     *
+     * @param bit
+     *            the bit of the trigram
+     */
+    void add(final int bit) {
+        this.bits[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Checks if all trigrams may have been added.
+     *
+     * @param query
+     *            the bits of the trigrams
+     * @return false, if a trigram was not added
+     */
+    boolean mightContain(final int[] query) {
+        for (final int bit : query) {
+            if ((this.bits[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -8,7 +8,7 @@ import net.agilhard.jsch.UserInfo;
 /**
  * The Interface Tty.
  */
-public interface Tty {
+public interface Tty extends ReplyWriter {
 
     /**
      * Inits the.
@@ -59,14 +59,15 @@ public interface Tty {
     int read(byte[] buf, int offset, int length) throws IOException;
 
     /**
-     * Write.
+     * Gets the number of bytes which can be read without blocking.
      *
-     * @param bytes
-     *            the bytes
+     * @return the number of bytes, 0 if unknown
      * @throws IOException
      *             Signals that an I/O exception has occurred.
      */
-    void write(byte[] bytes) throws IOException;
+    default int available() throws IOException {
+        return 0;
+    }
 
     /**
      * Gets the exit status.
@@ -6,18 +6,51 @@ package net.agilhard.terminal.emulation;
 import java.awt.Dimension;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * The Class TtyChannel.
  */
 public class TtyChannel {
 
-    /** The tty. */
+    /** The default smallest read buffer size. */
+    public static final int DEFAULT_MIN_BUFFER_SIZE = 1024;
+
+    /** The default largest read buffer size. */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+    /** The number of reads in a row filling the buffer before it grows. */
+    private static final int GROW_AFTER = 2;
+
+    /** The number of reads in a row using less than a quarter of the buffer before it shrinks. */
+    private static final int SHRINK_AFTER = 32;
+
+    /** The tty, null if the output is pushed to the emulator instead of read. */
     private final Tty tty;
 
+    /** The writer of the bytes sent to the remote side. */
+    private final ReplyWriter replies;
+
+    /** The smallest read buffer size. */
+    private int minBufferSize = DEFAULT_MIN_BUFFER_SIZE;
+
+    /** The largest read buffer size. */
+    private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+
+    /** The number of reads in a row which filled the buffer. */
+    private int fullReads;
+
+    /** The number of reads in a row which used less than a quarter of the buffer. */
+    private int smallReads;
+
+    /** The buf wrapped for a {@link ByteBufferTty}. */
+    private ByteBuffer byteBuffer;
+
     // CHECKSTYLE:OFF
     /** The buf. */
-    byte[] buf = new byte[1024];
+    byte[] buf = new byte[DEFAULT_MIN_BUFFER_SIZE];
 
     /** The offset. */
     int offset;
@@ -29,15 +62,137 @@ public class TtyChannel {
     int serial;
     // CHECKSTYLE:ON
 
+    /** The decoder for printable text. */
+    private TextDecoder decoder;
+
     /**
-     * Instantiates a new tty channel.
+     * Instantiates a new tty channel decoding UTF-8.
      *
      * @param tty
      *            the tty
      */
     public TtyChannel(final Tty tty) {
+        this(tty, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Instantiates a new tty channel.
+     *
+     * @param tty
+     *            the tty
+     * @param charset
+     *            the charset of the remote side, must be ASCII compatible
+     */
+    public TtyChannel(final Tty tty, final Charset charset) {
         this.tty = tty;
+        this.replies = tty;
         this.serial = 0;
+        this.decoder = new TextDecoder(charset);
+    }
+
+    /**
+     * Instantiates a new tty channel without a tty, the output of the remote side is pushed with
+     * {@link Emulator#process(byte[], int, int)} and only the bytes sent back go through the channel.
+     *
+     * @param replies
+     *            the writer of the bytes sent to the remote side
+     * @param charset
+     *            the charset of the remote side, must be ASCII compatible
+     */
+    public TtyChannel(final ReplyWriter replies, final Charset charset) {
+        this.tty = null;
+        this.replies = replies;
+        this.decoder = new TextDecoder(charset);
+    }
+
+    /**
+     * Sets the charset of the remote side. A character which is incomplete when the charset is changed is dropped.
+     *
+     * @param charset
+     *            the new charset, must be ASCII compatible
+     */
+    public void setCharset(final Charset charset) {
+        this.decoder = new TextDecoder(charset);
+    }
+
+    /**
+     * Gets the charset of the remote side.
+     *
+     * @return the charset
+     */
+    public Charset getCharset() {
+        return this.decoder.getCharset();
+    }
+
+    /**
+     * Sets the range the read buffer size adapts in. The buffer doubles while reads keep filling it and halves while
+     * reads use only a small part of it. Pass the same value twice for a fixed size.
+     *
+     * @param minSize
+     *            the smallest size
+     * @param maxSize
+     *            the largest size
+     */
+    public void setBufferSizes(final int minSize, final int maxSize) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("invalid buffer sizes " + minSize + ", " + maxSize);
+        }
+        this.minBufferSize = minSize;
+        this.maxBufferSize = maxSize;
+        if (this.length == 0 && (this.buf.length < minSize || this.buf.length > maxSize)) {
+            this.buf = new byte[this.buf.length < minSize ? minSize : maxSize];
+        }
+    }
+
+    /**
+     * Gets the current read buffer size.
+     *
+     * @return the buffer size
+     */
+    public int getBufferSize() {
+        return this.buf.length;
+    }
+
+    /**
+     * Decode a run of printable text, see {@link #getDecodedChars()} for the result.
+     *
+     * @param bytes
+     *            the bytes
+     * @param start
+     *            the start
+     * @param len
+     *            the length
+     * @return the number of decoded chars
+     */
+    int decode(final byte[] bytes, final int start, final int len) {
+        return this.decoder.decode(bytes, start, len);
+    }
+
+    /**
+     * Checks if an incomplete character has been left by the last decoded run.
+     *
+     * @return true, if pending
+     */
+    boolean hasPendingChar() {
+        return this.decoder.hasPending();
+    }
+
+    /**
+     * Drop an incomplete character, see {@link #getDecodedChars()} for the result.
+     *
+     * @return the number of decoded chars, 1 for the replacement character or 0
+     */
+    int flushDecoder() {
+        return this.decoder.flush();
+    }
+
+    /**
+     * Gets the chars decoded by the last call to {@link #decode(byte[], int, int)} or {@link #flushDecoder()}.
+     *
+     * @return the decoded chars
+     */
+    char[] getDecodedChars() {
+        return this.decoder.getChars();
     }
 
     /**
@@ -56,6 +211,43 @@ public class TtyChannel {
         return this.buf[this.offset++];
     }
 
+    /**
+     * Make sure bytes are available, reading from the tty if the buffer is drained.
+     *
+     * @return the number of bytes available in buf starting at offset
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    int fill() throws java.io.IOException {
+        if (this.length == 0) {
+            this.fillBuf();
+        }
+        return this.length;
+    }
+
+    /**
+     * Consume bytes which have been processed.
+     *
+     * @param count
+     *            the number of bytes
+     */
+    void consume(final int count) {
+        this.offset += count;
+        this.length -= count;
+    }
+
+    /**
+     * Gets the number of bytes which can be processed without blocking, the bytes left in the buffer and those the
+     * tty has ready.
+     *
+     * @return the number of bytes, the bytes left in the buffer if the tty cannot tell
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    int available() throws IOException {
+        return this.tty == null ? this.length : this.length + this.tty.available();
+    }
+
     /**
      * Append buf.
      *
@@ -81,13 +273,52 @@ public class TtyChannel {
         this.length = this.offset = 0;
         // CHECKSTYLE:ON
 
-        this.length = this.tty.read(this.buf, this.offset, this.buf.length - this.offset);
+        if (this.tty == null) {
+            throw new IOException("no tty to read from, the output is pushed");
+        }
+        this.adaptBufferSize();
+        if (this.tty instanceof ByteBufferTty) {
+            if (this.byteBuffer == null || this.byteBuffer.array() != this.buf) {
+                this.byteBuffer = ByteBuffer.wrap(this.buf);
+            }
+            this.byteBuffer.clear();
+            this.length = ((ByteBufferTty) this.tty).read(this.byteBuffer);
+        } else {
+            this.length = this.tty.read(this.buf, this.offset, this.buf.length - this.offset);
+        }
         this.serial++;
 
         if (this.length <= 0) {
             this.length = 0;
             throw new InterruptedIOException("fillBuf");
         }
+        if (this.length == this.buf.length) {
+            this.fullReads++;
+            this.smallReads = 0;
+        } else if (this.length < this.buf.length >> 2) {
+            this.smallReads++;
+            this.fullReads = 0;
+        } else {
+            this.fullReads = 0;
+            this.smallReads = 0;
+        }
+    }
+
+    /**
+     * Grow the drained buffer under sustained throughput, shrink it when output has become sparse.
+     */
+    private void adaptBufferSize() {
+        int size = this.buf.length;
+        if (this.fullReads >= GROW_AFTER && size < this.maxBufferSize) {
+            size = Math.min(size << 1, this.maxBufferSize);
+        } else if (this.smallReads >= SHRINK_AFTER && size > this.minBufferSize) {
+            size = Math.max(size >> 1, this.minBufferSize);
+        } else {
+            return;
+        }
+        this.buf = new byte[size];
+        this.fullReads = 0;
+        this.smallReads = 0;
     }
 
     /**
@@ -109,37 +340,6 @@ public class TtyChannel {
         this.buf[--this.offset] = b;
     }
 
-    /**
-     * Advance through ascii.
-     *
-     * @param toLineEnd
-     *            the to line end
-     * @return the int
-     * @throws IOException
-     *             Signals that an I/O exception has occurred.
-     */
-    int advanceThroughASCII(final int toLineEnd) throws java.io.IOException {
-        if (this.length == 0) {
-            this.fillBuf();
-        }
-
-        int len = toLineEnd > this.length ? this.length : toLineEnd;
-
-        final int origLen = len;
-        byte tmp;
-        while (len > 0) {
-            tmp = this.buf[this.offset++];
-            if (0x20 <= tmp && tmp <= 0x7f) {
-                this.length--;
-                len--;
-                continue;
-            }
-            this.offset--;
-            break;
-        }
-        return origLen - len;
-    }
-
     /**
      * Send bytes.
      *
@@ -149,7 +349,7 @@ public class TtyChannel {
      *             Signals that an I/O exception has occurred.
      */
     public void sendBytes(final byte[] bytes) throws IOException {
-        this.tty.write(bytes);
+        this.replies.write(bytes);
     }
 
     /**
@@ -161,7 +361,9 @@ public class TtyChannel {
      *            the pixel size
      */
     public void postResize(final Dimension termSize, final Dimension pixelSize) {
-        this.tty.resize(termSize, pixelSize);
+        if (this.tty != null) {
+            this.tty.resize(termSize, pixelSize);
+        }
     }
 
     /**
@@ -183,7 +385,7 @@ public class TtyChannel {
     /**
      * Gets the tty.
      *
-     * @return the tty
+     * @return the tty, null if the output is pushed
      */
     public Tty getTty() {
         return this.tty;
@@ -0,0 +1,310 @@
+package net.agilhard.terminal.emulation;
+
+import java.io.IOException;
+
+/**
+ * Table driven parser for DEC ANSI compatible terminal input, following the state machine described by Paul
+ * Williams (<a href="http://vt100.net/emu/dec_ansi_parser">vt100.net/emu/dec_ansi_parser</a>).
+ * <p>
+ * The parser consumes whole chunks of bytes. Runs of printable characters in the ground state are handed to the
+ * {@link Emulator} in one call, every other byte is looked up in a precomputed transition table which yields the
+ * action to perform and the next state. The parser state is kept between calls, so escape sequences may be split
+ * across chunks. Nothing is allocated while parsing, the {@link ControlSequence} is reused for every sequence.
+ */
+final class VtParser {
+
+    // States
+
+    /** The ground state. */
+    static final int GROUND = 0;
+
+    /** After ESC. */
+    static final int ESCAPE = 1;
+
+    /** After ESC and intermediate bytes. */
+    static final int ESCAPE_INTERMEDIATE = 2;
+
+    /** After CSI. */
+    static final int CSI_ENTRY = 3;
+
+    /** Inside the parameters of a CSI. */
+    static final int CSI_PARAM = 4;
+
+    /** After intermediate bytes of a CSI. */
+    static final int CSI_INTERMEDIATE = 5;
+
+    /** Inside a malformed CSI which is consumed up to its final byte. */
+    static final int CSI_IGNORE = 6;
+
+    /** Inside an operating system command. */
+    static final int OSC_STRING = 7;
+
+    /** After DCS. */
+    static final int DCS_ENTRY = 8;
+
+    /** Inside the parameters of a DCS. */
+    static final int DCS_PARAM = 9;
+
+    /** After intermediate bytes of a DCS. */
+    static final int DCS_INTERMEDIATE = 10;
+
+    /** Inside the data string of a DCS. */
+    static final int DCS_PASSTHROUGH = 11;
+
+    /** Inside a malformed DCS which is consumed up to the string terminator. */
+    static final int DCS_IGNORE = 12;
+
+    /** Inside a SOS, PM or APC string. */
+    static final int SOS_PM_APC_STRING = 13;
+
+    /** The number of states. */
+    private static final int STATE_COUNT = 14;
+
+    // Actions
+
+    /** Nothing to do. */
+    private static final int NONE = 0;
+
+    /** Execute a C0 control. */
+    private static final int EXECUTE = 1;
+
+    /** Clear the sequence collected so far. */
+    private static final int CLEAR = 2;
+
+    /** Collect an intermediate byte. */
+    private static final int COLLECT = 3;
+
+    /** Collect a private marker byte. */
+    private static final int MARKER = 4;
+
+    /** Collect a parameter byte. */
+    private static final int PARAM = 5;
+
+    /** Dispatch an escape sequence. */
+    private static final int ESC_DISPATCH = 6;
+
+    /** Dispatch a control sequence. */
+    private static final int CSI_DISPATCH = 7;
+
+    /** The action bits of a table entry. */
+    private static final int ACTION_SHIFT = 4;
+
+    /** The state bits of a table entry. */
+    private static final int STATE_MASK = 0x0F;
+
+    /**
+     * The transition table, indexed by <code>state &lt;&lt; 8 | byte</code>. Each entry holds the action in the
+     * upper and the next state in the lower four bits.
+     */
+    private static final byte[] TABLE = new byte[STATE_COUNT << 8];
+
+    static {
+        for (int state = 0; state < STATE_COUNT; state++) {
+            // Defaults for all states, overridden below
+            range(state, 0x00, 0x17, EXECUTE, state);
+            on(state, 0x19, EXECUTE, state);
+            range(state, 0x1C, 0x1F, EXECUTE, state);
+            range(state, 0x20, 0xFF, NONE, state);
+            // "anywhere" transitions
+            on(state, 0x18, EXECUTE, GROUND);
+            on(state, 0x1A, EXECUTE, GROUND);
+            on(state, 0x1B, CLEAR, ESCAPE);
+        }
+
+        // printable bytes in GROUND never reach the table, parse() passes them on in runs
+
+        range(ESCAPE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+        range(ESCAPE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+        on(ESCAPE, '[', CLEAR, CSI_ENTRY);
+        on(ESCAPE, ']', NONE, OSC_STRING);
+        on(ESCAPE, 'P', CLEAR, DCS_ENTRY);
+        on(ESCAPE, 'X', NONE, SOS_PM_APC_STRING);
+        on(ESCAPE, '^', NONE, SOS_PM_APC_STRING);
+        on(ESCAPE, '_', NONE, SOS_PM_APC_STRING);
+
+        range(ESCAPE_INTERMEDIATE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+        range(ESCAPE_INTERMEDIATE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+
+        range(CSI_ENTRY, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+        range(CSI_ENTRY, 0x30, 0x39, PARAM, CSI_PARAM);
+        range(CSI_ENTRY, ':', ';', PARAM, CSI_PARAM);
+        range(CSI_ENTRY, 0x3C, 0x3F, MARKER, CSI_PARAM);
+        range(CSI_ENTRY, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+        range(CSI_PARAM, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+        range(CSI_PARAM, 0x30, 0x39, PARAM, CSI_PARAM);
+        range(CSI_PARAM, ':', ';', PARAM, CSI_PARAM);
+        range(CSI_PARAM, 0x3C, 0x3F, NONE, CSI_IGNORE);
+        range(CSI_PARAM, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+        range(CSI_INTERMEDIATE, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+        range(CSI_INTERMEDIATE, 0x30, 0x3F, NONE, CSI_IGNORE);
+        range(CSI_INTERMEDIATE, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+        range(CSI_IGNORE, 0x40, 0x7E, NONE, GROUND);
+
+        // OSC, DCS, SOS, PM and APC strings are consumed but not interpreted. They end with BEL or ST (ESC \),
+        // the ESC is covered by the "anywhere" transition, the backslash is then dispatched as a no-op.
+        range(OSC_STRING, 0x00, 0x1F, NONE, OSC_STRING);
+        on(OSC_STRING, 0x07, NONE, GROUND);
+        on(OSC_STRING, 0x18, EXECUTE, GROUND);
+        on(OSC_STRING, 0x1A, EXECUTE, GROUND);
+        on(OSC_STRING, 0x1B, CLEAR, ESCAPE);
+
+        range(DCS_ENTRY, 0x00, 0x1F, NONE, DCS_ENTRY);
+        range(DCS_ENTRY, 0x20, 0x2F, NONE, DCS_INTERMEDIATE);
+        range(DCS_ENTRY, 0x30, 0x3B, NONE, DCS_PARAM);
+        range(DCS_ENTRY, 0x3C, 0x3F, NONE, DCS_PARAM);
+        range(DCS_ENTRY, 0x40, 0x7E, NONE, DCS_PASSTHROUGH);
+
+        range(DCS_PARAM, 0x00, 0x1F, NONE, DCS_PARAM);
+        range(DCS_PARAM, 0x20, 0x2F, NONE, DCS_INTERMEDIATE);
+        range(DCS_PARAM, 0x3C, 0x3F, NONE, DCS_IGNORE);
+        range(DCS_PARAM, 0x40, 0x7E, NONE, DCS_PASSTHROUGH);
+
+        range(DCS_INTERMEDIATE, 0x00, 0x1F, NONE, DCS_INTERMEDIATE);
+        range(DCS_INTERMEDIATE, 0x30, 0x3F, NONE, DCS_IGNORE);
+        range(DCS_INTERMEDIATE, 0x40, 0x7E, NONE, DCS_PASSTHROUGH);
+
+        range(DCS_PASSTHROUGH, 0x00, 0x1F, NONE, DCS_PASSTHROUGH);
+        range(DCS_IGNORE, 0x00, 0x1F, NONE, DCS_IGNORE);
+        range(SOS_PM_APC_STRING, 0x00, 0x1F, NONE, SOS_PM_APC_STRING);
+        for (final int state : new int[] { DCS_ENTRY, DCS_PARAM, DCS_INTERMEDIATE, DCS_PASSTHROUGH, DCS_IGNORE,
+            SOS_PM_APC_STRING }) {
+            on(state, 0x18, EXECUTE, GROUND);
+            on(state, 0x1A, EXECUTE, GROUND);
+            on(state, 0x1B, CLEAR, ESCAPE);
+        }
+    }
+
+    /**
+     * Set the transition for a range of bytes.
+     *
+     * @param state
+     *            the state
+     * @param from
+     *            the first byte
+     * @param to
+     *            the last byte, inclusive
+     * @param action
+     *            the action
+     * @param next
+     *            the next state
+     */
+    private static void range(final int state, final int from, final int to, final int action, final int next) {
+        for (int b = from; b <= to; b++) {
+            on(state, b, action, next);
+        }
+    }
+
+    /**
+     * Set the transition for a single byte.
+     *
+     * @param state
+     *            the state
+     * @param b
+     *            the byte
+     * @param action
+     *            the action
+     * @param next
+     *            the next state
+     */
+    private static void on(final int state, final int b, final int action, final int next) {
+        TABLE[state << 8 | b] = (byte) (action << ACTION_SHIFT | next);
+    }
+
+    /** The emulator receiving the actions. */
+    private final Emulator emulator;
+
+    /** The control sequence, reused for every CSI. */
+    private final ControlSequence cs;
+
+    /** The current state. */
+    private int state = GROUND;
+
+    /**
+     * Instantiates a new parser.
+     *
+     * @param emulator
+     *            the emulator receiving the actions
+     * @param cs
+     *            the control sequence to reuse
+     */
+    VtParser(final Emulator emulator, final ControlSequence cs) {
+        this.emulator = emulator;
+        this.cs = cs;
+    }
+
+    /**
+     * Parse a chunk of bytes.
+     *
+     * @param buf
+     *            the buffer
+     * @param offset
+     *            the offset of the first byte
+     * @param length
+     *            the number of bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void parse(final byte[] buf, final int offset, final int length) throws IOException {
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (this.state == GROUND) {
+                // fast path for runs of printable characters, bytes above 0x7F are text in the channel's charset
+                final int start = i;
+                i = PrintableScanner.scan(buf, i, end);
+                if (i > start) {
+                    if (PrintableScanner.isAscii(buf, start, i)) {
+                        this.emulator.print(buf, start, i - start);
+                    } else {
+                        this.emulator.printText(buf, start, i - start);
+                    }
+                    continue;
+                }
+            }
+            final int b = buf[i] & 0xFF;
+            final int entry = TABLE[this.state << 8 | b] & 0xFF;
+            this.state = entry & STATE_MASK;
+            switch (entry >>> ACTION_SHIFT) {
+            case EXECUTE:
+                this.emulator.execute(b);
+                break;
+            case CLEAR:
+                this.cs.reset();
+                break;
+            case COLLECT:
+                this.cs.collect(b);
+                break;
+            case MARKER:
+                this.cs.setPrivateMarker(b);
+                break;
+            case PARAM:
+                this.cs.param(b);
+                break;
+            case ESC_DISPATCH:
+                this.cs.setFinalChar(b);
+                this.emulator.escDispatch(this.cs);
+                break;
+            case CSI_DISPATCH:
+                this.cs.setFinalChar(b);
+                this.emulator.csiDispatch(this.cs);
+                break;
+            default:
+                break;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Gets the current state.
+     *
+     * @return the state
+     */
+    int getState() {
+        return this.state;
+    }
+
+}
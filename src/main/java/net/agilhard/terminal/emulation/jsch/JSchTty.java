@@ -331,6 +331,14 @@ public class JSchTty implements Tty {
         return this.in.read(buf, offset, length);
     }
 
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#available()
+     */
+    @Override
+    public int available() throws IOException {
+        return this.in == null ? 0 : this.in.available();
+    }
+
     /* (non-Javadoc)
      * @see net.agilhard.terminal.emulation.Tty#write(byte[])
      */
@@ -26,6 +26,7 @@ import net.agilhard.jsch.ChannelSftp;
 import net.agilhard.jsch.SftpATTRS;
 import net.agilhard.jsch.SftpException;
 import net.agilhard.jsch.SftpProgressMonitor;
+import net.agilhard.terminal.emulation.SessionRunner;
 
 /**
  * The Class Sftp.
@@ -458,12 +459,26 @@ public class Sftp implements Runnable {
      */
     public Thread kick() {
         if (this.thread == null) {
-            this.thread = new Thread(this);
+            this.thread = SessionRunner.newThread("Sftp", this);
             this.thread.start();
         }
         return this.thread;
     }
 
+    /**
+     * Kick on a session runner, closing the runner closes the input and ends the command loop.
+     *
+     * @param runner
+     *            the runner
+     * @return the thread
+     */
+    public Thread kick(final SessionRunner runner) {
+        if (this.thread == null) {
+            this.thread = runner.start("Sftp", this, this.in);
+        }
+        return this.thread;
+    }
+
     /**
      * The Class MyProgressMonitor.
      */
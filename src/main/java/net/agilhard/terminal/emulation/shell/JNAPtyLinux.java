@@ -3,6 +3,7 @@ package net.agilhard.terminal.emulation.shell;
 
 import java.awt.Dimension;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -11,17 +12,18 @@ import org.slf4j.LoggerFactory;
 
 import com.sun.jna.Library;
 import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
 import com.sun.jna.ptr.IntByReference;
 
 import net.agilhard.jsch.UserInfo;
+import net.agilhard.terminal.emulation.ByteBufferTty;
 import net.agilhard.terminal.emulation.Questioner;
-import net.agilhard.terminal.emulation.Tty;
 
 /**
  * The Class JNAPtyLinux.
  */
-public class JNAPtyLinux implements Tty {
+public class JNAPtyLinux implements ByteBufferTty {
 
     /** The Logger. */
     private final Logger log = LoggerFactory.getLogger(JNAPtyLinux.class);
@@ -192,6 +194,9 @@ public class JNAPtyLinux implements Tty {
     public static final int TIOCGWINSZ =
         System.getProperty("os.name").equalsIgnoreCase("Linux") ? (int) 0x5413 : (int) 1074295912;
 
+    /** The Constant FIONREAD, the number of bytes ready to read. */
+    public static final int FIONREAD = System.getProperty("os.name").equalsIgnoreCase("Linux") ? 0x541B : 0x4004667F;
+
     public static final int TIOCSWINSZ =
         System.getProperty("os.name").equalsIgnoreCase("Linux") ? (int) 0x5414 : (int) -2146929561;
 
@@ -207,6 +212,15 @@ public class JNAPtyLinux implements Tty {
     /** The exit status. */
     private int exitStatus;
 
+    /** The result of FIONREAD. */
+    private final IntByReference availableBuf = new IntByReference();
+
+    /** The native memory reads into heap buffers go through. */
+    private ByteBuffer readBuffer;
+
+    /** The address of the read buffer. */
+    private Pointer readPointer;
+
     /** The pid. */
     private int pid;
 
@@ -294,6 +308,19 @@ public class JNAPtyLinux implements Tty {
          */
         int read(int fd, byte[] buf, int count);
 
+        /**
+         * Read into native memory.
+         *
+         * @param fd
+         *            the fd
+         * @param buf
+         *            the buf
+         * @param count
+         *            the count
+         * @return the int
+         */
+        int read(int fd, Pointer buf, int count);
+
         /**
          * Write.
          *
@@ -559,6 +586,40 @@ public class JNAPtyLinux implements Tty {
         return i;
     }
 
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#available()
+     */
+    @Override
+    public int available() throws IOException {
+        if (CLibrary.INSTANCE.ioctl(this.fdBuf.getValue(), FIONREAD, this.availableBuf) != 0) {
+            return 0;
+        }
+        return this.availableBuf.getValue();
+    }
+
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.ByteBufferTty#read(java.nio.ByteBuffer)
+     */
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int len = dst.remaining();
+        // the read buffer is reused, JNA would allocate and copy native memory for every byte[] read
+        if (this.readBuffer == null || this.readBuffer.capacity() < len) {
+            this.readBuffer = ByteBuffer.allocateDirect(len);
+            this.readPointer = Native.getDirectBufferPointer(this.readBuffer);
+        }
+        final int i = CLibrary.INSTANCE.read(this.fdBuf.getValue(), this.readPointer, len);
+        if (i > 0) {
+            this.readBuffer.clear();
+            this.readBuffer.limit(i);
+            dst.put(this.readBuffer);
+        }
+        if (i <= 0) {
+            return -1;
+        }
+        return i;
+    }
+
     /**
      * Write.
      *
@@ -165,6 +165,14 @@ public class PtyWindowsCmd implements Tty {
         return 0;
     }
 
+    /* (non-Javadoc)
+     * @see net.agilhard.terminal.emulation.Tty#available()
+     */
+    @Override
+    public int available() throws IOException {
+        return this.in == null ? 0 : this.in.available();
+    }
+
     /* (non-Javadoc)
      * @see net.agilhard.terminal.emulation.Tty#write(byte[])
      */
@@ -0,0 +1,209 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link HeadlessTerminal} queries.
+ */
+public class HeadlessTerminalTest {
+
+    /**
+     * Create a terminal showing some output.
+     *
+     * @param output
+     *            the output
+     * @return the terminal
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static HeadlessTerminal newTerminal(final String output) throws IOException {
+        final HeadlessTerminal terminal = new HeadlessTerminal(10, 3);
+        final byte[] bytes = output.getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        return terminal;
+    }
+
+    /**
+     * Test the style of cells.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testStyle() throws IOException {
+        final HeadlessTerminal terminal = newTerminal("a\033[1;31mb\033[0;4;38;2;1;2;3;48;5;200mc");
+        final CellStyle plain = terminal.getStyle(0, 0);
+        assertEquals(CellStyle.DEFAULT_COLOR, plain.getForeground());
+        assertEquals(CellStyle.DEFAULT_COLOR, plain.getBackground());
+        assertFalse(plain.isBold());
+        final CellStyle red = terminal.getStyle(1, 0);
+        assertTrue(red.isBold());
+        assertEquals(1, red.getForegroundIndex());
+        assertEquals(0xFF0000, red.getForeground());
+        final CellStyle rgb = terminal.getStyle(2, 0);
+        assertFalse(rgb.isBold());
+        assertTrue(rgb.isUnderlined());
+        assertEquals(0x010203, rgb.getForeground());
+        assertEquals(-1, rgb.getForegroundIndex());
+        assertEquals(200, rgb.getBackgroundIndex());
+        assertEquals(plain, terminal.getStyle(5, 2));
+    }
+
+    /**
+     * Test that a cell outside the screen is rejected.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testBounds() throws IOException {
+        final HeadlessTerminal terminal = newTerminal("x");
+        assertEquals('x', terminal.getChar(0, 0));
+        assertEquals(' ', terminal.getChar(9, 2));
+        final int[][] outside = { { -1, 0 }, { 10, 0 }, { 0, -1 }, { 0, 3 }, { 0, 5 } };
+        for (final int[] cell : outside) {
+            try {
+                terminal.getChar(cell[0], cell[1]);
+                fail("no exception for " + cell[0] + ", " + cell[1]);
+            } catch (final IndexOutOfBoundsException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(cell[0] < 0 || cell[0] >= 10 ? "column" : "row"));
+            }
+            try {
+                terminal.getStyle(cell[0], cell[1]);
+                fail("no exception for " + cell[0] + ", " + cell[1]);
+            } catch (final IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+        try {
+            terminal.getLine(3);
+            fail("no exception for row 3");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that the cursor stays on the last column while a wrap is pending.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testCursorAtEndOfLine() throws IOException {
+        final HeadlessTerminal terminal = newTerminal("123456789");
+        assertEquals(9, terminal.getCursorColumn());
+        terminal.feed(new byte[] { '0' }, 0, 1);
+        assertEquals(9, terminal.getCursorColumn());
+        assertEquals(0, terminal.getCursorRow());
+        terminal.feed(new byte[] { '!' }, 0, 1);
+        assertEquals(1, terminal.getCursorColumn());
+        assertEquals(1, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that erasing up to a cursor waiting to wrap at the end of the row clears the whole row.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testEraseWithPendingWrap() throws IOException {
+        final HeadlessTerminal terminal = newTerminal("0123456789\033[1J");
+        assertEquals("", terminal.getLine(0));
+        assertEquals(9, terminal.getCursorColumn());
+        terminal.feed(new byte[] { 'a' }, 0, 1);
+        assertEquals("a", terminal.getLine(1));
+        final byte[] bytes = "\r\n0123456789\033[1K".getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        assertEquals("", terminal.getLine(2));
+    }
+
+    /**
+     * Test that a row or column of 0 in a cursor position is taken as 1 and positions beyond the screen are clamped.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testCursorPositionClamped() throws IOException {
+        final HeadlessTerminal terminal = newTerminal("abc\033[0;0H");
+        assertEquals(0, terminal.getCursorColumn());
+        assertEquals(0, terminal.getCursorRow());
+        final String[] moves = { "\033[1;0Hx", "\033[0;0f\ny", "\033[0;5H\033[0Az", "\033[99;99H!",
+            "\033[2;3H\033[0B\033[0C\033[0D#" };
+        for (final String move : moves) {
+            final byte[] bytes = move.getBytes(StandardCharsets.US_ASCII);
+            terminal.feed(bytes, 0, bytes.length);
+        }
+        assertEquals("xbc z", terminal.getLine(0));
+        assertEquals("y", terminal.getLine(1));
+        assertEquals("  #      !", terminal.getLine(2));
+        assertEquals(3, terminal.getCursorColumn());
+        assertEquals(2, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that the answer to a device attributes request is written to the reply stream.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testReplies() throws IOException {
+        final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        final HeadlessTerminal terminal = new HeadlessTerminal(10, 3, StandardCharsets.UTF_8, replies);
+        final byte[] request = "ab\033[c".getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(request, 0, request.length);
+        assertEquals("ab", terminal.getLine(0));
+        assertEquals("\033[?6c", replies.toString("US-ASCII"));
+    }
+
+    /**
+     * Test that a search of the screen finds the hits of every row, also after a resize.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testSearchScreen() throws IOException {
+        final HeadlessTerminal terminal = newTerminal("ab ab\r\nxx\r\n  ab");
+        assertEquals("[0:0, 0:3, 2:2]", hits(terminal, "ab"));
+        terminal.resize(12, 3);
+        assertEquals("[0:0, 0:3, 2:2]", hits(terminal, "ab"));
+        assertEquals("[]", hits(terminal, "abc"));
+    }
+
+    /**
+     * Gets the hits of a literal search of the screen.
+     *
+     * @param terminal
+     *            the terminal
+     * @param text
+     *            the text searched
+     * @return the hits as row:column
+     */
+    private static String hits(final HeadlessTerminal terminal, final String text) {
+        final List<String> hits = new ArrayList<>();
+        final Iterator<SearchHit> it = terminal.getBackBuffer().search(SearchQuery.literal(text, false));
+        while (it.hasNext()) {
+            final SearchHit hit = it.next();
+            assertEquals(text.length(), hit.getLength());
+            hits.add(hit.getLine() + ":" + hit.getColumn());
+        }
+        return hits.toString();
+    }
+
+}
@@ -0,0 +1,131 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link PrintableScanner}, the word at a time scan must agree with a scalar loop.
+ */
+public class PrintableScannerTest {
+
+    /** Bytes at the edges of the printable range. */
+    private static final byte[] EDGES = { 0x00, 0x1B, 0x1F, 0x20, 0x21, 0x7E, 0x7F, (byte) 0x80, (byte) 0x9F,
+        (byte) 0xA0, (byte) 0xC3, (byte) 0xFF };
+
+    /**
+     * Create random bytes, mostly printable with some controls and edge values.
+     *
+     * @param random
+     *            the random
+     * @param length
+     *            the length
+     * @return the bytes
+     */
+    private static byte[] randomBytes(final Random random, final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            final int kind = random.nextInt(64);
+            if (kind == 0) {
+                bytes[i] = EDGES[random.nextInt(EDGES.length)];
+            } else if (kind == 1) {
+                bytes[i] = (byte) random.nextInt(256);
+            } else if (kind < 8) {
+                bytes[i] = (byte) (0x80 + random.nextInt(0x80));
+            } else {
+                bytes[i] = (byte) (0x20 + random.nextInt(0x5F));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks if all bytes are below 0x80, one byte at a time.
+     *
+     * @param buf
+     *            the buffer
+     * @param from
+     *            the index to start at
+     * @param to
+     *            the end index, exclusive
+     * @return true, if ascii
+     */
+    private static boolean isAsciiScalar(final byte[] buf, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test that every byte value ends or continues a run as the scalar loop does, at every position in a word.
+     */
+    @Test
+    public void testEveryByteAtEveryPosition() {
+        for (int b = 0; b < 256; b++) {
+            for (int pos = 0; pos < 24; pos++) {
+                final byte[] bytes = new byte[24];
+                Arrays.fill(bytes, (byte) 'a');
+                bytes[pos] = (byte) b;
+                assertEquals("byte " + b + " at " + pos, PrintableScanner.scanScalar(bytes, 0, bytes.length),
+                    PrintableScanner.scan(bytes, 0, bytes.length));
+                assertEquals("byte " + b + " at " + pos, isAsciiScalar(bytes, 0, bytes.length),
+                    PrintableScanner.isAscii(bytes, 0, bytes.length));
+            }
+        }
+    }
+
+    /**
+     * Test the scan against the scalar loop on random input, at random offsets and lengths.
+     */
+    @Test
+    public void testRandomInput() {
+        final Random random = new Random(5);
+        for (int round = 0; round < 20000; round++) {
+            final byte[] bytes = randomBytes(random, 1 + random.nextInt(200));
+            final int from = random.nextInt(bytes.length);
+            final int to = from + random.nextInt(bytes.length - from + 1);
+            assertEquals("round " + round, PrintableScanner.scanScalar(bytes, from, to),
+                PrintableScanner.scan(bytes, from, to));
+            assertEquals("round " + round, isAsciiScalar(bytes, from, to), PrintableScanner.isAscii(bytes, from, to));
+        }
+    }
+
+    /**
+     * Test that scanning run after run finds the same control positions as the scalar loop.
+     */
+    @Test
+    public void testConsecutiveRuns() {
+        final Random random = new Random(55);
+        for (int round = 0; round < 200; round++) {
+            final byte[] bytes = randomBytes(random, 4096);
+            int i = 0;
+            int j = 0;
+            while (i < bytes.length) {
+                i = PrintableScanner.scan(bytes, i, bytes.length);
+                j = PrintableScanner.scanScalar(bytes, j, bytes.length);
+                assertEquals("round " + round, j, i);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Test empty ranges.
+     */
+    @Test
+    public void testEmptyRange() {
+        final byte[] bytes = new byte[16];
+        assertEquals(0, PrintableScanner.scan(bytes, 0, 0));
+        assertEquals(9, PrintableScanner.scan(bytes, 9, 9));
+        assertTrue(PrintableScanner.isAscii(bytes, 3, 3));
+    }
+
+}
@@ -0,0 +1,157 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests of the reflow of wrapped lines when the width of the screen changes.
+ */
+public class ReflowTest {
+
+    /** A line of 40 chars, wrapped on a screen of 20 columns. */
+    private static final String LONG_LINE = "012345678901234567890123456789abcdefghij";
+
+    /** Shell output with a long line, a styled line and a prompt. */
+    private static final String OUTPUT = "$ echo hello\r\nhello\r\n" + LONG_LINE + "\r\n\033[1mshort\033[0m\r\n$ ";
+
+    /**
+     * Create a terminal showing the output.
+     *
+     * @param columns
+     *            the columns
+     * @param rows
+     *            the rows
+     * @return the terminal
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static HeadlessTerminal newTerminal(final int columns, final int rows) throws IOException {
+        final HeadlessTerminal terminal = new HeadlessTerminal(columns, rows);
+        final byte[] bytes = OUTPUT.getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        return terminal;
+    }
+
+    /**
+     * Gets the rows of the screen joined by newlines, the rows marked as wrapped end with a backslash.
+     *
+     * @param terminal
+     *            the terminal
+     * @return the rows
+     */
+    private static String rows(final HeadlessTerminal terminal) {
+        final StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < terminal.getRows(); y++) {
+            sb.append(terminal.getLine(y));
+            if (terminal.getBackBuffer().row(y).wrapped) {
+                sb.append('\\');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Test that a wrapped line is rewrapped when the width shrinks, and that the cursor stays on the prompt.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testShrink() throws IOException {
+        final HeadlessTerminal terminal = newTerminal(20, 8);
+        assertEquals("$ echo hello\nhello\n01234567890123456789\\\n0123456789abcdefghij\nshort\n$\n\n\n",
+            rows(terminal));
+        terminal.resize(12, 8);
+        assertEquals("$ echo hello\nhello\n012345678901\\\n234567890123\\\n456789abcdef\\\nghij\nshort\n$\n",
+            rows(terminal));
+        assertEquals(2, terminal.getCursorColumn());
+        assertEquals(7, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that the rows of a wrapped line are joined when the width grows.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testGrow() throws IOException {
+        final HeadlessTerminal terminal = newTerminal(20, 8);
+        terminal.resize(40, 8);
+        assertEquals("$ echo hello\nhello\n" + LONG_LINE + "\nshort\n$\n\n\n\n", rows(terminal));
+        assertFalse(terminal.getBackBuffer().row(2).wrapped);
+        assertEquals(2, terminal.getCursorColumn());
+        assertEquals(4, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that shrinking and growing back restores the screen, styles included, while all rows fit on the screen.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testShrinkAndGrowBack() throws IOException {
+        final HeadlessTerminal terminal = newTerminal(20, 12);
+        final String before = rows(terminal);
+        final int styleId = terminal.getBackBuffer().row(4).styleIds[0];
+        assertTrue(styleId != StyleRegistry.EMPTY_ID);
+        for (final int width : new int[] { 13, 7, 31, 9, 20 }) {
+            terminal.resize(width, 12);
+        }
+        assertEquals(before, rows(terminal));
+        assertEquals(styleId, terminal.getBackBuffer().row(4).styleIds[0]);
+        assertEquals(StyleRegistry.EMPTY_ID, terminal.getBackBuffer().row(5).styleIds[0]);
+        assertEquals(2, terminal.getCursorColumn());
+        assertEquals(5, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that rows pushed off the top by a narrower width go to the scroll buffer.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testDroppedRowsGoToHistory() throws IOException {
+        final HeadlessTerminal terminal = new HeadlessTerminal(20, 6);
+        terminal.setScrollBuffer(new ScrollBuffer());
+        final byte[] bytes = OUTPUT.getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        terminal.resize(7, 6);
+        assertEquals("4567890\\\n1234567\\\n89abcde\\\nfghij\nshort\n$\n", rows(terminal));
+        // the first rows of the long line went to the history, the line goes on on the screen
+        assertEquals("\n$ echo hello\nhello\n01234567890123", terminal.getScrollBuffer().getLines());
+        assertEquals(5, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that the main screen hidden by the alternate screen is reflowed around its cursor, so its lines stay on
+     * the screen and the cursor restored when the alternate screen is left is at its cell.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testHiddenMainScreen() throws IOException {
+        final HeadlessTerminal terminal = new HeadlessTerminal(16, 5);
+        terminal.setScrollBuffer(new ScrollBuffer());
+        final byte[] bytes = "hello world, long line\r\nsecond\033[?1049h".getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        terminal.resize(10, 5);
+        final byte[] leave = "\033[?1049lX".getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(leave, 0, leave.length);
+        assertEquals("hello worl\\\nd, long li\\\nne\nsecondX\n\n", rows(terminal));
+        assertEquals("", terminal.getScrollBuffer().getLines());
+        assertEquals(7, terminal.getCursorColumn());
+        assertEquals(3, terminal.getCursorRow());
+    }
+
+}
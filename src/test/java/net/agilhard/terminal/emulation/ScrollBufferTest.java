@@ -0,0 +1,298 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ScrollBuffer}. Lines must come back unchanged after they were packed into sections,
+ * compressed, inflated and partly evicted.
+ */
+public class ScrollBufferTest {
+
+    /**
+     * A line as written, its text and the style id of each char.
+     */
+    private static final class Line {
+
+        /** The text. */
+        private final StringBuilder text = new StringBuilder();
+
+        /** The style ids. */
+        private final List<Integer> styleIds = new ArrayList<>();
+
+        /**
+         * Append a run.
+         *
+         * @param chars
+         *            the chars
+         * @param styleId
+         *            the style id
+         */
+        void append(final char[] chars, final int styleId) {
+            this.text.append(chars);
+            for (int i = 0; i < chars.length; i++) {
+                this.styleIds.add(styleId);
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return this.text + " " + this.styleIds;
+        }
+    }
+
+    /**
+     * Collects the pumped runs by line.
+     */
+    private static final class Collector implements StyledRunConsumer {
+
+        /** The lines by y. */
+        private final TreeMap<Integer, Line> lines = new TreeMap<>();
+
+        /* (non-Javadoc)
+         * @see net.agilhard.terminal.emulation.StyledRunConsumer#consumeRun(int, int, net.agilhard.terminal.emulation.Style, char[], int, int)
+         */
+        @Override
+        public void consumeRun(final int x, final int y, final Style style, final char[] buf, final int start,
+            final int len) {
+            final Line line = this.lines.computeIfAbsent(y, k -> new Line());
+            assertEquals("x of run in line " + y, line.text.length(), x);
+            final char[] chars = new char[len];
+            System.arraycopy(buf, start, chars, 0, len);
+            line.append(chars, style.getId());
+        }
+    }
+
+    /** The styles runs are written in. */
+    private static final Style[] STYLES = {
+        Style.EMPTY,
+        Style.EMPTY.withOption(Style.Option.BOLD, true),
+        StyleRegistry.intern(Style.indexed(1), Style.COLOR_DEFAULT, 0),
+        StyleRegistry.intern(Style.rgb(0x123456), Style.indexed(4), Style.Option.UNDERSCORE.bit()),
+    };
+
+    /**
+     * Create a random run.
+     *
+     * @param random
+     *            the random
+     * @param maxLength
+     *            the maximum length
+     * @return the chars
+     */
+    private static char[] randomRun(final Random random, final int maxLength) {
+        final char[] chars = new char[1 + random.nextInt(maxLength)];
+        for (int i = 0; i < chars.length; i++) {
+            // repetitive enough to compress, with some chars outside latin 1
+            chars[i] = random.nextInt(50) == 0 ? (char) (0x3040 + random.nextInt(0x60))
+                : (char) ('a' + random.nextInt(8));
+        }
+        return chars;
+    }
+
+    /**
+     * Write random lines of runs to a scroll buffer.
+     *
+     * @param buffer
+     *            the buffer
+     * @param random
+     *            the random
+     * @param count
+     *            the number of lines
+     * @return the lines as written
+     */
+    private static List<Line> writeLines(final ScrollBuffer buffer, final Random random, final int count) {
+        final List<Line> written = new ArrayList<>();
+        for (int n = 0; n < count; n++) {
+            final Line line = new Line();
+            final int runs = 1 + random.nextInt(4);
+            for (int r = 0; r < runs; r++) {
+                final char[] chars = randomRun(random, random.nextInt(20) == 0 ? 2000 : 60);
+                final Style style = STYLES[random.nextInt(STYLES.length)];
+                buffer.consumeRun(line.text.length(), 0, style, chars, 0, chars.length);
+                line.append(chars, style.getId());
+            }
+            written.add(line);
+        }
+        return written;
+    }
+
+    /**
+     * Pump lines.
+     *
+     * @param buffer
+     *            the buffer
+     * @param firstLine
+     *            the first line, negative
+     * @param height
+     *            the number of lines
+     * @return the lines by y
+     */
+    private static TreeMap<Integer, Line> pump(final ScrollBuffer buffer, final int firstLine, final int height) {
+        final Collector collector = new Collector();
+        buffer.pumpRuns(firstLine, height, collector);
+        return collector.lines;
+    }
+
+    /**
+     * Check that the buffer holds the newest lines written.
+     *
+     * @param buffer
+     *            the buffer
+     * @param written
+     *            the lines written
+     */
+    private static void assertNewestLines(final ScrollBuffer buffer, final List<Line> written) {
+        final int count = buffer.getLineCount();
+        assertTrue("line count " + count, count > 0 && count <= written.size());
+        final TreeMap<Integer, Line> lines = pump(buffer, -count, count);
+        assertEquals(count, lines.size());
+        for (int y = -count; y < 0; y++) {
+            final Line expected = written.get(written.size() + y);
+            assertEquals("line " + y, expected.toString(), String.valueOf(lines.get(y)));
+        }
+    }
+
+    /**
+     * Test that lines spanning many sections come back unchanged.
+     */
+    @Test
+    public void testRoundTrip() {
+        final ScrollBuffer buffer = new ScrollBuffer(Integer.MAX_VALUE, Long.MAX_VALUE);
+        final List<Line> written = writeLines(buffer, new Random(14), 5000);
+        assertEquals(written.size(), buffer.getLineCount());
+        assertTrue(buffer.getPackedBytes() > 0);
+        assertNewestLines(buffer, written);
+    }
+
+    /**
+     * Test that windows of lines starting anywhere, also in lines continued from the previous section, come back
+     * unchanged.
+     */
+    @Test
+    public void testWindows() {
+        final ScrollBuffer buffer = new ScrollBuffer(Integer.MAX_VALUE, Long.MAX_VALUE);
+        final List<Line> written = writeLines(buffer, new Random(41), 3000);
+        final Random random = new Random(7);
+        for (int round = 0; round < 300; round++) {
+            final int firstLine = -1 - random.nextInt(written.size());
+            final int height = 1 + random.nextInt(-firstLine);
+            final TreeMap<Integer, Line> lines = pump(buffer, firstLine, height);
+            for (int y = firstLine; y < firstLine + height; y++) {
+                final Line expected = written.get(written.size() + y);
+                assertEquals("window " + firstLine + " line " + y, expected.toString(), String.valueOf(lines.get(y)));
+            }
+        }
+    }
+
+    /**
+     * Test that the line cap evicts whole sections and keeps the newest lines intact. The cap applies to complete
+     * sections, the current section may hold lines beyond it.
+     */
+    @Test
+    public void testLineCapEviction() {
+        final ScrollBuffer buffer = new ScrollBuffer(1000, Long.MAX_VALUE);
+        final List<Line> written = writeLines(buffer, new Random(1000), 8000);
+        assertTrue("line count " + buffer.getLineCount(), buffer.getLineCount() < 2000);
+        assertNewestLines(buffer, written);
+    }
+
+    /**
+     * Test that the byte cap evicts whole sections and keeps the newest lines intact.
+     */
+    @Test
+    public void testByteCapEviction() {
+        final ScrollBuffer buffer = new ScrollBuffer(Integer.MAX_VALUE, 30000);
+        final List<Line> written = writeLines(buffer, new Random(30000), 8000);
+        assertTrue("packed bytes " + buffer.getPackedBytes(), buffer.getPackedBytes() <= 30000);
+        assertTrue(buffer.getLineCount() < written.size());
+        assertNewestLines(buffer, written);
+    }
+
+    /**
+     * Test that rows added from a screen, wrapped rows joined to one line, come back unchanged.
+     */
+    @Test
+    public void testAddRows() {
+        final ScrollBuffer buffer = new ScrollBuffer(500, Long.MAX_VALUE);
+        final Random random = new Random(80);
+        final List<Line> written = new ArrayList<>();
+        Line line = new Line();
+        final ScreenRow[] rows = new ScreenRow[3];
+        for (int n = 0; n < 6000; n++) {
+            final ScreenRow row = new ScreenRow(80);
+            final int len = random.nextInt(81);
+            for (int x = 0; x < len; x++) {
+                row.chars[x] = (char) ('a' + random.nextInt(26));
+                row.styleIds[x] = STYLES[x / 10 % STYLES.length].getId();
+            }
+            row.wrapped = len == 80 && random.nextBoolean();
+            final int content = row.wrapped ? 80 : row.getContentLength();
+            for (int x = 0; x < content; x++) {
+                line.append(new char[] { row.chars[x] }, row.styleIds[x]);
+            }
+            if (!row.wrapped) {
+                written.add(line);
+                line = new Line();
+            }
+            rows[n % rows.length] = row;
+            if (n % rows.length == rows.length - 1) {
+                buffer.addRows(rows, rows.length);
+            }
+        }
+        assertTrue(buffer.getLineCount() < written.size());
+        final int count = buffer.getLineCount();
+        final TreeMap<Integer, Line> lines = pump(buffer, -count, count);
+        for (int y = -count; y < 0; y++) {
+            final Line expected = written.get(written.size() + y);
+            final Line actual = lines.get(y);
+            // an empty line has no runs
+            assertEquals("line " + y, expected.toString(), actual == null ? new Line().toString() : actual.toString());
+        }
+    }
+
+    /**
+     * Test that the indexed parallel search finds a word at the end of a line which started sections ago, its
+     * trigrams are in the filter of the section the line started in.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws ExecutionException
+     *             if the search failed
+     */
+    @Test
+    public void testSearchLineSpanningSections() throws InterruptedException, ExecutionException {
+        final ScrollBuffer buffer = new ScrollBuffer(Integer.MAX_VALUE, Long.MAX_VALUE);
+        buffer.setSearchIndexEnabled(true);
+        final char[] filler = "filler line".toCharArray();
+        for (int n = 0; n < 100; n++) {
+            buffer.consumeRun(0, 0, Style.EMPTY, filler, 0, filler.length);
+        }
+        final char[] chunk = new char[1000];
+        Arrays.fill(chunk, 'x');
+        int x = 0;
+        for (int n = 0; n < 20; n++) {
+            buffer.consumeRun(x, 0, Style.EMPTY, chunk, 0, chunk.length);
+            x += chunk.length;
+        }
+        final char[] needle = "needle".toCharArray();
+        buffer.consumeRun(x, 0, Style.EMPTY, needle, 0, needle.length);
+        final SearchQuery query = SearchQuery.literal("NEEDLE", true);
+        assertEquals("[SearchHit [line=-1, column=" + x + ", length=6]]",
+            buffer.searchParallel(query).get().toString());
+        assertEquals("[]", buffer.searchParallel(SearchQuery.literal("needles", false)).get().toString());
+    }
+
+}
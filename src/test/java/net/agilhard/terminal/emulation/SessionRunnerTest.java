@@ -0,0 +1,110 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link SessionRunner}.
+ */
+public class SessionRunnerTest {
+
+    /**
+     * Test that closing the runner closes the resources of the running tasks and interrupts the others.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public void testClose() throws InterruptedException {
+        final SessionRunner runner = new SessionRunner();
+        final CountDownLatch closed = new CountDownLatch(1);
+        runner.start("resource", () -> {
+            try {
+                closed.await();
+            } catch (final InterruptedException e) {
+                // ended by the close of the resource
+            }
+        }, closed::countDown);
+        runner.start("interrupt", () -> {
+            try {
+                Thread.sleep(60000);
+            } catch (final InterruptedException e) {
+                // ended by the interrupt
+            }
+        });
+        runner.close();
+        assertEquals(0, closed.getCount());
+        assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, runner.getRunningCount());
+    }
+
+    /**
+     * Test that a task attempts after the close does not run and its resource is closed.
+     */
+    @Test
+    public void testStartAfterClose() {
+        final SessionRunner runner = new SessionRunner();
+        runner.close();
+        final AtomicBoolean ran = new AtomicBoolean();
+        final AtomicInteger closes = new AtomicInteger();
+        try {
+            runner.start("late", () -> ran.set(true), closes::incrementAndGet);
+            fail("attempts after close");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, closes.get());
+        assertEquals(0, runner.getRunningCount());
+        assertTrue(!ran.get());
+    }
+
+    /**
+     * Test that every task attempts while the runner is closed from another thread either runs and has its resource
+     * closed, or is rejected with its resource closed.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Test
+    public void testStartRacingClose() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final SessionRunner runner = new SessionRunner();
+            final AtomicInteger closes = new AtomicInteger();
+            final AtomicInteger attempts = new AtomicInteger();
+            final Thread starter = new Thread(() -> {
+                for (int i = 0; i < 20; i++) {
+                    final CountDownLatch done = new CountDownLatch(1);
+                    try {
+                        runner.start("task", () -> {
+                            try {
+                                done.await();
+                            } catch (final InterruptedException e) {
+                                // ended by the close
+                            }
+                        }, () -> {
+                            closes.incrementAndGet();
+                            done.countDown();
+                        });
+                    } catch (final IllegalStateException e) {
+                        // closed, the resource is closed by the start
+                    }
+                    attempts.incrementAndGet();
+                }
+            });
+            starter.start();
+            runner.close();
+            starter.join();
+            assertEquals("round " + round, attempts.get(), closes.get());
+            assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link TerminalExporter}.
+ */
+public class TerminalExporterTest {
+
+    /**
+     * Create a terminal with a scroll buffer showing some output.
+     *
+     * @param columns
+     *            the columns
+     * @param rows
+     *            the rows
+     * @param output
+     *            the output
+     * @return the terminal
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static HeadlessTerminal newTerminal(final int columns, final int rows, final String output)
+        throws IOException {
+        final HeadlessTerminal terminal = new HeadlessTerminal(columns, rows);
+        terminal.setScrollBuffer(new ScrollBuffer());
+        final byte[] bytes = output.getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        return terminal;
+    }
+
+    /**
+     * Export a terminal.
+     *
+     * @param terminal
+     *            the terminal
+     * @param format
+     *            the format
+     * @return the output
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static String export(final HeadlessTerminal terminal, final TerminalExporter.Format format)
+        throws IOException {
+        final StringWriter writer = new StringWriter();
+        TerminalExporter.export(terminal.getScrollBuffer(), terminal.getBackBuffer(), format, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Test that screen rows are trimmed and the blank rows at the bottom are dropped.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testTrimmedRows() throws IOException {
+        final HeadlessTerminal terminal = newTerminal(10, 6, "one  \r\n\r\nre\r\n");
+        assertEquals("one\n\nre\n", export(terminal, TerminalExporter.Format.PLAIN));
+    }
+
+    /**
+     * Test that wrapped rows are joined, on the screen and across the border of history and screen.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testWrappedRowsJoined() throws IOException {
+        final String expected = "first\n0123456789abcdefghijklmnopqrstuvwxyz\nlast\n";
+        // all on the screen
+        assertEquals(expected, export(newTerminal(10, 8, expected.replace("\n", "\r\n")),
+            TerminalExporter.Format.PLAIN));
+        // the long line starts in the history and ends on the screen
+        final HeadlessTerminal terminal = newTerminal(10, 3, expected.replace("\n", "\r\n"));
+        assertTrue(terminal.getScrollBuffer().getLineCount() > 0);
+        assertEquals(expected, export(terminal, TerminalExporter.Format.PLAIN));
+    }
+
+    /**
+     * Test that the styles of a wrapped line are not ended at the row border.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testWrappedStyledLine() throws IOException {
+        final HeadlessTerminal terminal = newTerminal(10, 4, "\033[1m0123456789abc\033[0m\r\n");
+        assertEquals("\033[0;1m0123456789abc\033[0m\n", export(terminal, TerminalExporter.Format.ANSI));
+    }
+
+    /**
+     * Test that a HTML document names the charset it is encoded in.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testHtmlCharset() throws IOException {
+        final HeadlessTerminal terminal = newTerminal(10, 2, "a<b");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TerminalExporter.export(terminal.getScrollBuffer(), terminal.getBackBuffer(), TerminalExporter.Format.HTML,
+            Channels.newChannel(out), StandardCharsets.ISO_8859_1);
+        final String html = out.toString("ISO-8859-1");
+        assertTrue(html, html.contains("<meta charset=\"ISO-8859-1\">"));
+        assertTrue(html, html.contains("<pre>a&lt;b\n</pre>"));
+    }
+
+}
@@ -0,0 +1,144 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link TextDecoder}. A character split across chunks must decode like the character in one chunk.
+ */
+public class TextDecoderTest {
+
+    /** Text with one, two and three byte UTF-8 sequences. */
+    private static final String TEXT = "Gr\u00FC\u00DFe \u2013 \u65E5\u672C\u8A9E \u20AC5 \u00E9t\u00E9";
+
+    /**
+     * Decode bytes in chunks.
+     *
+     * @param decoder
+     *            the decoder
+     * @param bytes
+     *            the bytes
+     * @param splits
+     *            the indexes the chunks end at, ascending
+     * @return the decoded text
+     */
+    private static String decode(final TextDecoder decoder, final byte[] bytes, final int... splits) {
+        final StringBuilder sb = new StringBuilder();
+        int from = 0;
+        for (int i = 0; i <= splits.length; i++) {
+            final int to = i < splits.length ? splits[i] : bytes.length;
+            final int count = decoder.decode(bytes, from, to - from);
+            sb.append(decoder.getChars(), 0, count);
+            from = to;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Test that UTF-8 text split into three chunks at any bytes decodes to the text.
+     */
+    @Test
+    public void testUtf8SplitAtEveryByte() {
+        final byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        for (int first = 0; first <= bytes.length; first++) {
+            for (int second = first; second <= bytes.length; second++) {
+                final TextDecoder decoder = new TextDecoder(StandardCharsets.UTF_8);
+                assertEquals("split at " + first + ", " + second, TEXT, decode(decoder, bytes, first, second));
+            }
+        }
+    }
+
+    /**
+     * Test that a code point outside the basic multilingual plane takes one replacement character, split or not.
+     */
+    @Test
+    public void testUtf8SupplementaryCharacter() {
+        final byte[] bytes = "a\uD834\uDD1Eb".getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            final TextDecoder decoder = new TextDecoder(StandardCharsets.UTF_8);
+            assertEquals("split at " + split, "a\uFFFDb", decode(decoder, bytes, split));
+        }
+    }
+
+    /**
+     * Test that malformed UTF-8 is replaced.
+     */
+    @Test
+    public void testUtf8Malformed() {
+        final byte[] bytes = { 'a', (byte) 0x80, 'b', (byte) 0xC3, 'c', (byte) 0xC0, (byte) 0x80, 'd', (byte) 0xE0,
+            (byte) 0x80, (byte) 0x80, 'e', (byte) 0xED, (byte) 0xA0, (byte) 0x80, 'f' };
+        final TextDecoder decoder = new TextDecoder(StandardCharsets.UTF_8);
+        assertEquals("a\uFFFDb\uFFFDc\uFFFD\uFFFDd\uFFFDe\uFFFDf", decode(decoder, bytes));
+    }
+
+    /**
+     * Test that random bytes decode the same whether split or not.
+     */
+    @Test
+    public void testUtf8RandomBytesSplit() {
+        final Random random = new Random(4);
+        for (int round = 0; round < 200; round++) {
+            final byte[] bytes = new byte[1 + random.nextInt(64)];
+            for (int i = 0; i < bytes.length; i++) {
+                // mostly lead and continuation bytes, some ASCII
+                bytes[i] = (byte) (random.nextInt(4) == 0 ? 0x20 + random.nextInt(0x5F) : 0x80 + random.nextInt(0x80));
+            }
+            final String expected = decode(new TextDecoder(StandardCharsets.UTF_8), bytes);
+            for (int split = 0; split <= bytes.length; split++) {
+                final TextDecoder decoder = new TextDecoder(StandardCharsets.UTF_8);
+                assertEquals("round " + round + " split at " + split, expected, decode(decoder, bytes, split));
+            }
+        }
+    }
+
+    /**
+     * Test that text in a legacy multi byte charset split at any byte decodes to the text.
+     */
+    @Test
+    public void testLegacySplitAtEveryByte() {
+        final String text = "abc \u65E5\u672C\u8A9E \uFF76\uFF85 xyz";
+        for (final String name : new String[] { "Shift_JIS", "EUC-JP", "GBK" }) {
+            if (!Charset.isSupported(name)) {
+                continue;
+            }
+            final Charset charset = Charset.forName(name);
+            final byte[] bytes = text.getBytes(charset);
+            for (int split = 0; split <= bytes.length; split++) {
+                final TextDecoder decoder = new TextDecoder(charset);
+                final String expected = new String(bytes, charset);
+                assertEquals(name + " split at " + split, expected, decode(decoder, bytes, split));
+            }
+        }
+    }
+
+    /**
+     * Test that multi byte characters split across feeds reach the screen whole, and that a control interrupting a
+     * character leaves a replacement character.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testScreenSplitAtEveryByte() throws IOException {
+        final byte[] bytes = (TEXT + "\r\n\u00E4\u00F6\u00FC").getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            final HeadlessTerminal terminal = new HeadlessTerminal(40, 4);
+            terminal.feed(bytes, 0, split);
+            terminal.feed(bytes, split, bytes.length - split);
+            assertEquals("split at " + split, TEXT, terminal.getLine(0));
+            assertEquals("split at " + split, "\u00E4\u00F6\u00FC", terminal.getLine(1));
+        }
+        final HeadlessTerminal terminal = new HeadlessTerminal(40, 4);
+        final byte[] interrupted = { 'x', (byte) 0xE2, (byte) 0x82, '\r', '\n', 'y' };
+        terminal.feed(interrupted, 0, interrupted.length);
+        assertEquals("x\uFFFD", terminal.getLine(0));
+        assertEquals("y", terminal.getLine(1));
+    }
+
+}
@@ -0,0 +1,158 @@
+package net.agilhard.terminal.emulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link VtParser}, fed through a {@link HeadlessTerminal}. A sequence split across chunks must leave
+ * the same screen as the sequence in one chunk.
+ */
+public class VtParserTest {
+
+    /** The columns of the test screen. */
+    private static final int COLUMNS = 40;
+
+    /** The rows of the test screen. */
+    private static final int ROWS = 12;
+
+    /** Output mixing text with C0 controls, escape, control and string sequences. */
+    private static final byte[] OUTPUT = ("\033[2J\033[H"
+        + "plain \033[1;31mred bold\033[0m \033[38;2;10;200;30mtrue color\033[m\r\n"
+        + "\033[5;10Hat 5,10\033[K"
+        + "\0337\033[10;1Hsaved\0338<"
+        + "\033]0;window title\007"
+        + "\033]2;other title\033\\"
+        + "\033P1$rsome dcs data\033\\"
+        + "\033[?25l\033[?25h"
+        + "\033(B"
+        + "\033[3\030y"
+        + "\r\ntab\tend\b\bX\033[7mrev\033[27m\033[4;1H\033[2K!").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Create a test terminal.
+     *
+     * @return the terminal
+     */
+    private static HeadlessTerminal newTerminal() {
+        return new HeadlessTerminal(COLUMNS, ROWS);
+    }
+
+    /**
+     * Gets the text, the cursor and the style ids of a screen.
+     *
+     * @param terminal
+     *            the terminal
+     * @return the screen as text
+     */
+    private static String snapshot(final HeadlessTerminal terminal) {
+        final StringBuilder sb = new StringBuilder(terminal.getText());
+        sb.append('@').append(terminal.getCursorColumn()).append(',').append(terminal.getCursorRow()).append('\n');
+        final BackBuffer backBuffer = terminal.getBackBuffer();
+        for (int y = 0; y < ROWS; y++) {
+            sb.append(Arrays.toString(backBuffer.row(y).styleIds)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Feed the output in one chunk.
+     *
+     * @return the screen
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static String reference() throws IOException {
+        final HeadlessTerminal terminal = newTerminal();
+        terminal.feed(OUTPUT, 0, OUTPUT.length);
+        return snapshot(terminal);
+    }
+
+    /**
+     * Test that the output is parsed as intended.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testReference() throws IOException {
+        final HeadlessTerminal terminal = newTerminal();
+        terminal.feed(OUTPUT, 0, OUTPUT.length);
+        assertEquals("plain red bold true color", terminal.getLine(0));
+        assertEquals("", terminal.getLine(1));
+        assertEquals("!", terminal.getLine(3));
+        assertEquals("         at 5,10<y", terminal.getLine(4));
+        assertEquals("tab     eXrev", terminal.getLine(5));
+        assertEquals("saved", terminal.getLine(9));
+        assertEquals(1, terminal.getCursorColumn());
+        assertEquals(3, terminal.getCursorRow());
+    }
+
+    /**
+     * Test that splitting the output at any byte leaves the same screen.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testSplitAtEveryByte() throws IOException {
+        final String expected = reference();
+        for (int split = 1; split < OUTPUT.length; split++) {
+            final HeadlessTerminal terminal = newTerminal();
+            terminal.feed(OUTPUT, 0, split);
+            terminal.feed(OUTPUT, split, OUTPUT.length - split);
+            assertEquals("split at " + split, expected, snapshot(terminal));
+        }
+    }
+
+    /**
+     * Test that feeding the output a byte at a time leaves the same screen.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testByteByByte() throws IOException {
+        final HeadlessTerminal terminal = newTerminal();
+        for (int i = 0; i < OUTPUT.length; i++) {
+            terminal.feed(OUTPUT, i, 1);
+        }
+        assertEquals(reference(), snapshot(terminal));
+    }
+
+    /**
+     * Test that OSC and DCS strings are consumed without printing.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testStringsAreNotPrinted() throws IOException {
+        final HeadlessTerminal terminal = newTerminal();
+        final byte[] bytes = "a\033]0;title\007b\033]2;t\033\\c\033Pq#0;2\033\\d\033_apc\033\\e"
+            .getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        assertEquals("abcde", terminal.getLine(0));
+    }
+
+    /**
+     * Test that CAN aborts a control sequence without dispatching it.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testCancelAbortsSequence() throws IOException {
+        final HeadlessTerminal terminal = newTerminal();
+        final byte[] bytes = "\033[31\030x\033[1\032y".getBytes(StandardCharsets.US_ASCII);
+        terminal.feed(bytes, 0, bytes.length);
+        assertEquals("xy", terminal.getLine(0));
+        final ScreenRow row = terminal.getBackBuffer().row(0);
+        assertEquals(StyleRegistry.EMPTY_ID, row.styleIds[0]);
+    }
+
+}